@@ -0,0 +1,50 @@
+/**
+ * Exponential moving average of sensor readings.
+ * 
+ * Each reading moves the average by a fixed fraction (alpha) of its difference with the average.
+ * The first reading after a reset initializes the average.
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ */
+public class ExponentialFilter implements SampleFilter {
+	
+	/** weight of the newest reading, in (0,1] */
+	private double alpha;
+	
+	/** the current average */
+	private double average;
+	
+	/** true once a reading was fed */
+	private boolean started;
+	
+	/**
+	 * default constructor.
+	 * @param alpha weight of the newest reading, in (0,1]; 1 disables the smoothing.
+	 */
+	public ExponentialFilter(double alpha) {
+		this.alpha = alpha;
+	}
+	
+	/**
+	 * feeds the next reading.
+	 * @param sample the reading.
+	 * @return the updated average.
+	 */
+	public double filter(double sample) {
+		if (!started) {
+			average = sample;
+			started = true;
+		} else {
+			average += alpha * (sample - average);
+		}
+		return average;
+	}
+	
+	/**
+	 * forgets all readings fed so far.
+	 */
+	public void reset() {
+		started = false;
+	}
+}
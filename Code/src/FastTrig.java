@@ -0,0 +1,177 @@
+/**
+ * Table driven trigonometry in degrees.
+ * 
+ * The NXT has no floating point unit, so every Math.sin/cos/atan2 call is a long software routine.
+ * This class replaces them with lookups in small precomputed tables and a linear interpolation
+ * between neighbouring entries. The classes on the odometry and correction paths call it instead
+ * of Math; while it is disabled (the default) it simply forwards to Math.
+ * 
+ * Error bound: linear interpolation of a function f with table step h is off by at most
+ * h*h/8 * max|f''|. With a resolution of n table steps per degree this gives
+ * |sin error|, |cos error| &lt;= 3.9e-5 / (n*n) and |atan2 error| &lt;= 2.3e-3 / (n*n) degrees.
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ *
+ */
+public class FastTrig {
+	
+	/** default number of table steps per degree */
+	public static final int DEFAULT_RESOLUTION = 1;
+	
+	/** true when the tables are used, false when calls are forwarded to Math. Volatile, as it is
+	 * switched while other threads use the functions */
+	private static volatile boolean enabled = false;
+	
+	/** table steps per degree of the current tables */
+	private static int resolution;
+	
+	/** sine of [0,90] degrees, resolution entries per degree */
+	private static double [] sinTable;
+	
+	/** arctangent (in degrees) of [0,1], 45*resolution entries per unit so the angular step matches sinTable */
+	private static double [] atanTable;
+	
+	static {
+		setResolution(DEFAULT_RESOLUTION);
+	}
+	
+	/**
+	 * switches the users of this class between the lookup tables and Math.
+	 * @param enabled true to use the tables, false to use Math.
+	 */
+	public static void setEnabled(boolean enabled) {
+		FastTrig.enabled = enabled;
+	}
+	
+	/**
+	 * @return true if the lookup tables are in use.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * rebuilds the lookup tables with a new resolution. 
+	 * 
+	 * The tables take (90*resolution + 1) and (45*resolution + 1) doubles. Should be called
+	 * before the tables are enabled, as it replaces them while other threads may be reading.
+	 * @param stepsPerDegree number of table entries per degree, at least 1.
+	 */
+	public static void setResolution(int stepsPerDegree) {
+		if (stepsPerDegree < 1)
+			stepsPerDegree = 1;
+		
+		double [] sin = new double [90 * stepsPerDegree + 1];
+		for (int i = 0; i < sin.length; i++)
+			sin[i] = Math.sin(Math.toRadians((double) i / stepsPerDegree));
+		
+		double [] atan = new double [45 * stepsPerDegree + 1];
+		for (int i = 0; i < atan.length; i++)
+			atan[i] = Math.toDegrees(Math.atan((double) i / (atan.length - 1)));
+		
+		sinTable = sin;
+		atanTable = atan;
+		resolution = stepsPerDegree;
+	}
+	
+	/**
+	 * @return the number of table entries per degree.
+	 */
+	public static int getResolution() {
+		return resolution;
+	}
+	
+	/**
+	 * sine of an angle in degrees.
+	 * @param deg the angle in degrees, any range.
+	 * @return the sine of the angle.
+	 */
+	public static double sin(double deg) {
+		if (!enabled)
+			return Math.sin(Math.toRadians(deg));
+		return tableSin(deg);
+	}
+	
+	/**
+	 * cosine of an angle in degrees.
+	 * @param deg the angle in degrees, any range.
+	 * @return the cosine of the angle.
+	 */
+	public static double cos(double deg) {
+		if (!enabled)
+			return Math.cos(Math.toRadians(deg));
+		return tableSin(deg + 90.0);
+	}
+	
+	/**
+	 * angle of the vector (x,y) measured from the x axis, in degrees. Same argument order
+	 * and range (-180,180] as Math.atan2.
+	 * @param y the ordinate of the vector.
+	 * @param x the abscissa of the vector.
+	 * @return the angle in degrees.
+	 */
+	public static double atan2(double y, double x) {
+		if (!enabled)
+			return Math.toDegrees(Math.atan2(y, x));
+		return tableAtan2(y, x);
+	}
+	
+	/**
+	 * table sine, always uses the lookup table regardless of the enabled flag.
+	 * @param deg the angle in degrees.
+	 * @return the interpolated sine.
+	 */
+	static double tableSin(double deg) {
+		double a = deg % 360.0;
+		if (a < 0.0)
+			a += 360.0;
+		
+		if (a < 90.0)
+			return lookup(sinTable, a * resolution);
+		if (a < 180.0)
+			return lookup(sinTable, (180.0 - a) * resolution);
+		if (a < 270.0)
+			return -lookup(sinTable, (a - 180.0) * resolution);
+		return -lookup(sinTable, (360.0 - a) * resolution);
+	}
+	
+	/**
+	 * table arctangent, always uses the lookup table regardless of the enabled flag.
+	 * @param y the ordinate of the vector.
+	 * @param x the abscissa of the vector.
+	 * @return the interpolated angle in degrees.
+	 */
+	static double tableAtan2(double y, double x) {
+		double ax = Math.abs(x), ay = Math.abs(y);
+		if (ax == 0.0 && ay == 0.0)
+			return 0.0;
+		
+		double [] table = atanTable;
+		double a;
+		// reduce to the first octant, where the ratio is within [0,1]
+		if (ay <= ax)
+			a = lookup(table, ay / ax * (table.length - 1));
+		else
+			a = 90.0 - lookup(table, ax / ay * (table.length - 1));
+		
+		if (x < 0.0)
+			a = 180.0 - a;
+		if (y < 0.0)
+			a = -a;
+		return a;
+	}
+	
+	/**
+	 * helper method that linearly interpolates a table at a fractional index.
+	 * @param table the table to read.
+	 * @param index fractional index, within [0, table.length-1].
+	 * @return the interpolated value.
+	 */
+	private static double lookup(double [] table, double index) {
+		int i = (int) index;
+		if (i >= table.length - 1)
+			return table[table.length - 1];
+		return table[i] + (table[i + 1] - table[i]) * (index - i);
+	}
+}
@@ -0,0 +1,299 @@
+import lejos.nxt.NXTRegulatedMotor;
+
+/**
+ * Background firing engine of the launcher.
+ *
+ * Shots are queued with fire() and this thread fires them one after the other: each shot turns
+ * the arm one full turn back to the chamber position, and the next one starts as soon as the
+ * tachometer shows the arm has stopped there and the ball had CHAMBER_SETTLE ms to roll in,
+ * instead of after a fixed delay. The chamber positions are absolute tachometer targets, so a
+ * shot that stops a few degrees off does not shift the next ones.
+ *
+ * The caller is never blocked: it can pause the engine between two shots, for instance to
+ * correct the heading with Navigation.turnTo(), and resume it afterwards. A pause requested while
+ * a shot is under way only holds the shots after it, so to check every shot before it leaves, set
+ * holdAfterShot: the engine then pauses itself as each shot ends and waits for resumeFiring().
+ *
+ * prime() turns the arm PRIME_ANGLE into the next shot ahead of time, for instance while the
+ * robot still drives to the launch position. Since the chamber positions are absolute, the next
+ * shot then only covers the rest of the turn.
+ *
+ * @author Bobak Hamed-Baghi, Victor Repkow.
+ * @version V1.1 Revision 2
+ *
+ */
+public class FiringEngine extends Thread {
+
+	/** largest distance (tachometer degrees) from the chamber position at which the arm counts as back */
+	public static final int CHAMBER_TOLERANCE = 5;
+
+	/** time (ms) given to the next ball to roll into the chamber once the arm is back */
+	public static final int CHAMBER_SETTLE = 150;
+
+	/** period (ms) at which the tachometer is checked during a shot */
+	private static final int POLL_PERIOD = 10;
+
+	/** longest a shot may take (ms) before the arm is considered jammed */
+	private static final int SHOT_TIMEOUT = 3000;
+
+	/** angle (tachometer degrees) prime() turns the arm into the next shot. Well short of the point
+	 * where the arm releases the ball; to be tuned on the robot. */
+	public static final int PRIME_ANGLE = 120;
+
+	/** the launcher motor */
+	private NXTRegulatedMotor motor;
+
+	/** speed of the arm, in degrees per second */
+	private volatile int speed;
+
+	/** tachometer count of the chamber position the current shot returns to */
+	private int chamber;
+
+	/** shots waiting to be fired, shots fired and jams so far */
+	private int queued, fired, jams;
+
+	/** true while the engine holds the next shots, and while a shot is being fired */
+	private boolean paused, busy;
+
+	/** true if the engine pauses itself after every shot */
+	private boolean holdAfterShot;
+
+	/** true while prime() waits for the engine to turn the arm, and once the arm is primed */
+	private boolean primeRequested, primed;
+
+	/**
+	 * default constructor. The engine has to be started before it fires.
+	 * @param motor the launcher motor; the arm has to be in the chamber position.
+	 * @param speed speed of the arm, in degrees per second.
+	 */
+	public FiringEngine(NXTRegulatedMotor motor, int speed) {
+		this.motor = motor;
+		this.speed = speed;
+		setDaemon(true);
+	}
+
+	/**
+	 * run method required for thread. waits for queued shots and fires them.
+	 */
+	public void run() {
+		chamber = motor.getTachoCount();
+		while (true) {
+			boolean priming;
+			synchronized (this) {
+				while ((queued == 0 || paused) && !primeRequested) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				priming = queued == 0 || paused;
+				busy = true;
+			}
+
+			if (priming) {
+				// the chamber position is left alone, so the next shot ends at the same place
+				boolean moved = moveArm(chamber - PRIME_ANGLE);
+				synchronized (this) {
+					if (!moved)
+						jams++;
+					primed = moved;
+					primeRequested = false;
+					busy = false;
+					notifyAll();
+				}
+				continue;
+			}
+
+			boolean jammed = !fireOne();
+
+			synchronized (this) {
+				if (jammed) {
+					// drop the remaining shots, the arm has to be looked at
+					jams++;
+					queued = 0;
+				} else {
+					queued--;
+					fired++;
+					primed = false;
+					// paused with the shot count, so the caller sees the shot before the next leaves
+					if (holdAfterShot && queued > 0)
+						paused = true;
+				}
+				busy = false;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * helper method that fires one shot and waits until the launcher is chambered again.
+	 * @return true if the arm came back to the chamber position, false if it jammed.
+	 */
+	private boolean fireOne() {
+		chamber -= 360;
+		if (!moveArm(chamber)) {
+			chamber = motor.getTachoCount();
+			return false;
+		}
+
+		try {
+			Thread.sleep(CHAMBER_SETTLE);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return true;
+	}
+
+	/**
+	 * helper method that turns the arm to a tachometer count and waits until it is there.
+	 * @param target the tachometer count.
+	 * @return true if the arm got there, false if it jammed (it is then stopped).
+	 */
+	private boolean moveArm(int target) {
+		motor.setSpeed(speed);
+		motor.rotateTo(target, true);
+
+		long deadline = System.currentTimeMillis() + SHOT_TIMEOUT;
+		while (motor.isMoving() || Math.abs(motor.getTachoCount() - target) > CHAMBER_TOLERANCE) {
+			if (System.currentTimeMillis() > deadline) {
+				motor.stop();
+				return false;
+			}
+			try {
+				Thread.sleep(POLL_PERIOD);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * turns the arm PRIME_ANGLE into the next shot and waits until it is there. Does nothing if
+	 * the arm is already primed, or if shots are queued or being fired.
+	 * @return true if the arm is primed.
+	 */
+	public synchronized boolean prime() {
+		if (!primed && !busy && queued == 0) {
+			primeRequested = true;
+			notifyAll();
+		}
+		while (primeRequested || (busy && queued == 0)) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return primed;
+	}
+
+	/**
+	 * queues shots. Returns immediately.
+	 * @param shots number of shots to add.
+	 */
+	public synchronized void fire(int shots) {
+		queued += shots;
+		notifyAll();
+	}
+
+	/**
+	 * holds the queued shots. A shot already being fired is finished first.
+	 */
+	public synchronized void pauseFiring() {
+		paused = true;
+	}
+
+	/**
+	 * lets the queued shots be fired again.
+	 */
+	public synchronized void resumeFiring() {
+		paused = false;
+		notifyAll();
+	}
+
+	/**
+	 * selects whether the engine pauses itself after every shot that leaves more queued, until
+	 * resumeFiring() is called.
+	 * @param hold true to hold after every shot, false to fire the queued shots back to back.
+	 */
+	public synchronized void setHoldAfterShot(boolean hold) {
+		holdAfterShot = hold;
+	}
+
+	/**
+	 * waits until no shot is being fired and none will be fired (all done, or paused).
+	 * @param timeout longest time to wait, in ms; 0 waits as long as needed.
+	 * @return true if the engine is idle, false if the timeout expired or the thread was interrupted.
+	 */
+	public synchronized boolean awaitIdle(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (busy || (queued > 0 && !paused)) {
+			long left = deadline - System.currentTimeMillis();
+			if (timeout > 0 && left <= 0)
+				return false;
+			try {
+				wait(timeout > 0 ? left : 0);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * waits until a shot has been fired after the given count, or the engine has nothing left to
+	 * fire (all done, or paused).
+	 * @param seen the value of getFired() the caller last saw.
+	 * @param timeout longest time to wait, in ms; 0 waits as long as needed.
+	 * @return true if a new shot was fired.
+	 */
+	public synchronized boolean awaitShot(int seen, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (fired == seen && (busy || (queued > 0 && !paused))) {
+			long left = deadline - System.currentTimeMillis();
+			if (timeout > 0 && left <= 0)
+				break;
+			try {
+				wait(timeout > 0 ? left : 0);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return fired != seen;
+	}
+
+	/**
+	 * changes the speed of the next shots.
+	 * @param speed speed of the arm, in degrees per second.
+	 */
+	public void setSpeed(int speed) {
+		this.speed = speed;
+	}
+
+	/**
+	 * @return the number of shots waiting to be fired, including the one being fired.
+	 */
+	public synchronized int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * @return the number of shots fired so far.
+	 */
+	public synchronized int getFired() {
+		return fired;
+	}
+
+	/**
+	 * @return the number of shots the arm jammed on so far.
+	 */
+	public synchronized int getJams() {
+		return jams;
+	}
+}
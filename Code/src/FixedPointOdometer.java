@@ -0,0 +1,269 @@
+import lejos.util.Timer;
+import lejos.util.TimerListener;
+
+/**
+ * Fixed-point odometer. 
+ * 
+ * Alternative to the Odometer class that does all of its per-tick work in integer arithmetic,
+ * straight from the tachometer counts of the two wheel motors. The position is kept in 1/2^24 cm
+ * and the heading is recomputed from the absolute tachometer counts on every tick instead of being
+ * accumulated, so it does not drift the way the double differences of Odometer do. Only
+ * getPosition()/setPosition() convert to and from doubles.
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow.
+ * @version V1.1 Revision 2
+ *
+ */
+public class FixedPointOdometer implements TimerListener, PositionProvider {
+	
+	/** number of fractional bits in the constants and positions. */
+	private static final int FRACTION_BITS = 24;
+	
+	/** one cm (or one tachometer degree ratio) in fixed point. */
+	private static final long ONE = 1L << FRACTION_BITS;
+	
+	/** number of fractional bits of the heading, kept in 1/2^16 degrees. */
+	private static final int HEADING_BITS = 16;
+	
+	/** a full turn in heading units. */
+	private static final long FULL_TURN = 360L << HEADING_BITS;
+	
+	/** number of fractional bits of the sine table entries. */
+	private static final int SINE_BITS = 14;
+	
+	/** sine of [0,90] degrees in 1/2^14, one entry per degree. */
+	private static final int [] SINE = new int [91];
+	
+	static {
+		for (int i = 0; i < SINE.length; i++)
+			SINE[i] = (int) Math.round(Math.sin(Math.toRadians(i)) * (1 << SINE_BITS));
+	}
+	
+	/** reference to the TwoWheeledRobot class used by robot*/
+	private TwoWheeledRobot robot;
+	
+	/**timer that handles updating the odometer */
+	private Timer odometerTimer;
+	
+	/**Navigation class used by robot to handle mobility tasks*/
+	private Navigation nav;
+	
+	/**displacement (cm) per tachometer degree of each wheel, in fixed point */
+	private long leftDistance, rightDistance;
+	
+	/**heading change per tachometer degree of each wheel, in heading units scaled by 2^8 */
+	private long leftTurn, rightTurn;
+	
+	/**tachometer counts read on the previous tick */
+	private int lastLeft, lastRight;
+	
+	/**Lock object that serializes the writers of the position values. */
+	private Object lock = new Object();
+	
+	/**Sequence counter of the position values, odd while a writer is updating them. */
+	private volatile int seq;
+	
+	/**position in fixed point cm, same axes as Odometer */
+	private volatile long x, y;
+	
+	/**heading in heading units, not normalized */
+	private volatile long heading;
+	
+	/**heading offset added to the tachometer heading, changed by setPosition() */
+	private long headingOffset;
+	
+	/**
+	 * default Constructor. 
+	 * 
+	 * Precomputes the fixed point wheel constants and initializes the timer.
+	 * @param robot the TwoWheeledRobot class used by the robot.
+	 * @param period the period of the odometery timer.
+	 * @param start true starts the odometer timer immediately, false requires manual prompts later on.
+	 */
+	public FixedPointOdometer(TwoWheeledRobot robot, int period, boolean start) {
+		this.robot = robot;
+		this.nav = new Navigation(this);
+		odometerTimer = new Timer(period, this);
+		
+		leftDistance = Math.round(robot.getLeftRadius() * Math.PI / 360.0 * ONE);
+		rightDistance = Math.round(robot.getRightRadius() * Math.PI / 360.0 * ONE);
+		leftTurn = Math.round(robot.getLeftRadius() / robot.getWidth() * ONE);
+		rightTurn = Math.round(robot.getRightRadius() / robot.getWidth() * ONE);
+		
+		lastLeft = robot.leftMotor.getTachoCount();
+		lastRight = robot.rightMotor.getTachoCount();
+		headingOffset = tachoHeading(lastLeft, lastRight);
+		
+		if (start)
+			odometerTimer.start();
+	}
+	
+	/**
+	 * secondary constructor. uses the default period of Odometer and does not start the timer.
+	 * @param robot the twoWheeledRobot class being used by the robot.
+	 */
+	public FixedPointOdometer(TwoWheeledRobot robot) {
+		this(robot, Odometer.DEFAULT_PERIOD, false);
+	}
+	
+	/**
+	 * Called when the odometer timer is over. updates the odometer.
+	 * 
+	 * Reads the tachometers, recomputes the heading from the absolute counts and moves the position
+	 * along the heading halfway through the tick by the displacement of the tachometer deltas.
+	 */
+	public void timedOut() {
+		int left = robot.leftMotor.getTachoCount();
+		int right = robot.rightMotor.getTachoCount();
+		
+		long distance = (left - lastLeft) * leftDistance + (right - lastRight) * rightDistance;
+		long turned = tachoHeading(left, right);
+		lastLeft = left;
+		lastRight = right;
+		
+		synchronized (lock) {
+			// headingOffset is read under the lock, so a heading set since the tachometers were read is kept
+			long newHeading = headingOffset - turned;
+			seq++;
+			long mid = (heading + newHeading) >> 1;
+			x -= (distance * sine(mid)) >> SINE_BITS;
+			y -= (distance * sine(mid + (90L << HEADING_BITS))) >> SINE_BITS;
+			heading = newHeading;
+			seq++;
+		}
+	}
+	
+	/**
+	 * helper method that computes the heading turned by the wheels since their tachometers were reset.
+	 * @param left left tachometer count.
+	 * @param right right tachometer count.
+	 * @return heading in heading units.
+	 */
+	private long tachoHeading(int left, int right) {
+		return (left * leftTurn - right * rightTurn) >> (FRACTION_BITS - HEADING_BITS);
+	}
+	
+	/**
+	 * helper method that looks up the sine of a heading, interpolating between whole degrees.
+	 * @param angle heading in heading units, any range.
+	 * @return the sine in 1/2^14.
+	 */
+	private static int sine(long angle) {
+		angle %= FULL_TURN;
+		if (angle < 0)
+			angle += FULL_TURN;
+		
+		int quadrant = (int) (angle / (90L << HEADING_BITS));
+		int a = (int) (angle - quadrant * (90L << HEADING_BITS));
+		if ((quadrant & 1) != 0)
+			a = (90 << HEADING_BITS) - a;
+		
+		int deg = a >> HEADING_BITS;
+		int frac = a & ((1 << HEADING_BITS) - 1);
+		int s = deg >= 90 ? SINE[90] : SINE[deg] + (((SINE[deg + 1] - SINE[deg]) * frac) >> HEADING_BITS);
+		return quadrant >= 2 ? -s : s;
+	}
+	
+	// accessors
+	
+	/**
+	 * Position array getter method. returns a position array that contains x,y, and theta in order.
+	 * Never blocks the odometer timer.
+	 * 
+	 * @param pos the position array containing the x,y,theta values of the odometer.
+	 */
+	public void getPosition(double [] pos) {
+		int start;
+		long px, py, ph;
+		do {
+			start = seq;
+			px = x;
+			py = y;
+			ph = heading;
+		} while ((start & 1) != 0 || start != seq);
+		
+		ph %= FULL_TURN;
+		if (ph < 0)
+			ph += FULL_TURN;
+		pos[0] = (double) px / ONE;
+		pos[1] = (double) py / ONE;
+		pos[2] = (double) ph / (1 << HEADING_BITS);
+	}
+	
+	/**
+	 * accessor method that returns the twoWheeledRobot used by this odometer.
+	 * 
+	 * @return the twoWheeledRobot used by this odometer.
+	 */
+	public TwoWheeledRobot getTwoWheeledRobot() {
+		return robot;
+	}
+	
+	/**
+	 * navigation class accessor. 
+	 * 
+	 * @return the navigation class used by this odometer.
+	 */
+	public Navigation getNavigation() {
+		return this.nav;
+	}
+	
+	// mutators
+	/**
+	 * mutator that sets the position of the odometer (x,y, and theta) 
+	 * @param pos 		the position array (x,y,theta in that order) 
+	 * @param update	boolean array that masks the update of the pos array. If an index has a true value
+	 * 					in the boolean array, that index in the pos array will be updated.
+	 */
+	public void setPosition(double [] pos, boolean [] update) {
+		synchronized (lock) {
+			seq++;
+			if (update[0]) x = Math.round(pos[0] * ONE);
+			if (update[1]) y = Math.round(pos[1] * ONE);
+			if (update[2]) {
+				long target = Math.round(Odometer.fixDegAngle(pos[2]) * (1 << HEADING_BITS));
+				headingOffset += target - heading;
+				heading = target;
+			}
+			seq++;
+		}
+	}
+	
+	/**
+	 * mutator that sets x alone.
+	 * @param x the new x-coordinate.
+	 */
+	public void setX(double x) {
+		synchronized (lock) {
+			seq++;
+			this.x = Math.round(x * ONE);
+			seq++;
+		}
+	}
+	
+	/**
+	 * mutator that sets y alone.
+	 * @param y the new y-coordinate.
+	 */
+	public void setY(double y) {
+		synchronized (lock) {
+			seq++;
+			this.y = Math.round(y * ONE);
+			seq++;
+		}
+	}
+	
+	/**
+	 * mutator that sets theta alone.
+	 * @param theta the new heading.
+	 */
+	public void setTheta(double theta) {
+		synchronized (lock) {
+			seq++;
+			long target = Math.round(Odometer.fixDegAngle(theta) * (1 << HEADING_BITS));
+			headingOffset += target - heading;
+			heading = target;
+			seq++;
+		}
+	}
+}
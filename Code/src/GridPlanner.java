@@ -0,0 +1,282 @@
+/**
+ * A* path planner on the tile grid of the course.
+ * 
+ * Plans the quickest route between two tiles around a bitmap of blocked tiles and turns it into
+ * the waypoint arrays used by Navigation.travelToSequence(). The search state is a tile plus one of
+ * the four grid headings, so turning in place is weighted with the time turnTo() actually takes
+ * and routes with fewer corners are preferred. All search structures are allocated once in the
+ * constructor, so planning does not allocate.
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ *
+ */
+public class GridPlanner {
+	
+	/** length of a tile side, in cm (same as the grid spacing used by OdometryCorrection) */
+	public static final double TILE = 30.0;
+	
+	/** time lost stopping and starting again around every turn, in ms */
+	public static final int TURN_OVERHEAD = 400;
+	
+	/** column and row offsets of the four grid headings: 0 = +y, 90 = +x, 180 = -y, 270 = -x */
+	private static final int [] DC = {0, 1, 0, -1}, DR = {1, 0, -1, 0};
+	
+	/** size of the grid */
+	private int cols, rows;
+	
+	/** coordinates of the center of tile (0,0) */
+	private double originX, originY;
+	
+	/** blocked tiles, row-major */
+	private boolean [] blocked;
+	
+	/** time (ms) to drive one tile and to turn in place by 90 degrees */
+	private int tileCost, turnCost;
+	
+	/** search state of each (tile, heading): best known cost, parent state, closed flag, heap slot */
+	private int [] cost, parent, heapIndex;
+	private boolean [] closed;
+	
+	/** open set: binary min-heap of states ordered by cost + heuristic, and its size */
+	private int [] heap;
+	private int heapSize;
+	
+	/** states of the last path, goal first */
+	private int [] path;
+	
+	/**
+	 * default constructor. allocates the search structures for a grid of the given size.
+	 * @param cols number of tile columns.
+	 * @param rows number of tile rows.
+	 * @param originX x coordinate of the center of column 0.
+	 * @param originY y coordinate of the center of row 0.
+	 */
+	public GridPlanner(int cols, int rows, double originX, double originY) {
+		this.cols = cols;
+		this.rows = rows;
+		this.originX = originX;
+		this.originY = originY;
+		
+		int states = cols * rows * 4;
+		blocked = new boolean [cols * rows];
+		cost = new int [states];
+		parent = new int [states];
+		heapIndex = new int [states];
+		closed = new boolean [states];
+		heap = new int [states];
+		path = new int [states];
+		
+		// driving speed of travelTo() and rotation speed of turnTo(), which drives the wheels at FAST
+		double turnRate = Navigation.FAST * 360.0 / (Math.PI * TwoWheeledRobot.DEFAULT_WIDTH);
+		tileCost = (int) (TILE / Navigation.FAST * 1000.0);
+		turnCost = (int) (90.0 / turnRate * 1000.0) + TURN_OVERHEAD;
+	}
+	
+	/**
+	 * marks a tile as blocked or free.
+	 * @param col column of the tile.
+	 * @param row row of the tile.
+	 * @param isBlocked true if the robot may not enter the tile.
+	 */
+	public void setBlocked(int col, int row, boolean isBlocked) {
+		blocked[row * cols + col] = isBlocked;
+	}
+	
+	/**
+	 * replaces the whole obstacle bitmap.
+	 * @param bitmap blocked flags of all tiles, row-major (index row * cols + col).
+	 */
+	public void setObstacles(boolean [] bitmap) {
+		System.arraycopy(bitmap, 0, blocked, 0, blocked.length);
+	}
+	
+	/**
+	 * @param x a coordinate in cm.
+	 * @return the column of the tile containing x.
+	 */
+	public int toCol(double x) {
+		return (int) Math.floor((x - originX) / TILE + 0.5);
+	}
+	
+	/**
+	 * @param y a coordinate in cm.
+	 * @return the row of the tile containing y.
+	 */
+	public int toRow(double y) {
+		return (int) Math.floor((y - originY) / TILE + 0.5);
+	}
+	
+	/**
+	 * Plans the quickest route from a start tile to a goal tile.
+	 * 
+	 * The waypoints are the tile centers where the route turns, followed by the goal tile, so 
+	 * travelTo() drives each straight stretch in one go.
+	 * 
+	 * @param startCol column of the start tile.
+	 * @param startRow row of the start tile.
+	 * @param heading current heading of the robot, in degrees.
+	 * @param goalCol column of the goal tile.
+	 * @param goalRow row of the goal tile.
+	 * @param outX array receiving the x coordinates of the waypoints.
+	 * @param outY array receiving the y coordinates of the waypoints.
+	 * @return the number of waypoints written, or -1 if the goal cannot be reached or the arrays are too short.
+	 */
+	public int plan(int startCol, int startRow, double heading, int goalCol, int goalRow,
+			double [] outX, double [] outY) {
+		if (!inside(startCol, startRow) || !inside(goalCol, goalRow) || blocked[goalRow * cols + goalCol])
+			return -1;
+		
+		for (int i = 0; i < cost.length; i++) {
+			cost[i] = Integer.MAX_VALUE;
+			closed[i] = false;
+			heapIndex[i] = -1;
+		}
+		heapSize = 0;
+		
+		// the start tile may be entered facing any heading, at the cost of turning there
+		int startCell = startRow * cols + startCol;
+		for (int d = 0; d < 4; d++) {
+			double turn = Math.abs(Odometer.minimumAngleFromTo(heading, d * 90.0));
+			int state = startCell * 4 + d;
+			cost[state] = (int) (turn / 90.0 * turnCost);
+			parent[state] = -1;
+			push(state, goalCol, goalRow);
+		}
+		
+		int goal = -1;
+		while (heapSize > 0) {
+			int state = pop(goalCol, goalRow);
+			closed[state] = true;
+			int cell = state >> 2, d = state & 3;
+			if (cell == goalRow * cols + goalCol) {
+				goal = state;
+				break;
+			}
+			
+			// drive one tile ahead
+			int col = cell % cols + DC[d], row = cell / cols + DR[d];
+			if (inside(col, row) && !blocked[row * cols + col])
+				relax(state, (row * cols + col) * 4 + d, tileCost, goalCol, goalRow);
+			
+			// turn in place by 90 degrees either way
+			relax(state, cell * 4 + ((d + 1) & 3), turnCost, goalCol, goalRow);
+			relax(state, cell * 4 + ((d + 3) & 3), turnCost, goalCol, goalRow);
+		}
+		if (goal < 0)
+			return -1;
+		
+		// walk back from the goal, keeping the tiles where the heading changes
+		int length = 0;
+		path[length++] = goal;
+		for (int s = goal; parent[s] >= 0; s = parent[s]) {
+			int p = parent[s];
+			if ((p & 3) != (s & 3) && (p >> 2) != startCell && (p >> 2) != (path[length - 1] >> 2))
+				path[length++] = p;
+		}
+		if (length > outX.length || length > outY.length)
+			return -1;
+		
+		for (int i = 0; i < length; i++) {
+			int cell = path[length - 1 - i] >> 2;
+			outX[i] = originX + (cell % cols) * TILE;
+			outY[i] = originY + (cell / cols) * TILE;
+		}
+		return length;
+	}
+	
+	/**
+	 * helper method that checks a tile is on the grid.
+	 * @param col column of the tile.
+	 * @param row row of the tile.
+	 * @return true if the tile is on the grid.
+	 */
+	private boolean inside(int col, int row) {
+		return col >= 0 && col < cols && row >= 0 && row < rows;
+	}
+	
+	/**
+	 * helper method that updates a neighbouring state if it is reached more quickly through state.
+	 */
+	private void relax(int state, int next, int stepCost, int goalCol, int goalRow) {
+		if (closed[next])
+			return;
+		int c = cost[state] + stepCost;
+		if (c < cost[next]) {
+			cost[next] = c;
+			parent[next] = state;
+			if (heapIndex[next] < 0)
+				push(next, goalCol, goalRow);
+			else
+				siftUp(heapIndex[next], goalCol, goalRow);
+		}
+	}
+	
+	/**
+	 * helper method that computes the A* priority of a state: its cost plus the time to drive
+	 * the Manhattan distance to the goal, which never overestimates the remaining time.
+	 */
+	private int priority(int state, int goalCol, int goalRow) {
+		int cell = state >> 2;
+		int dc = cell % cols - goalCol, dr = cell / cols - goalRow;
+		return cost[state] + ((dc < 0 ? -dc : dc) + (dr < 0 ? -dr : dr)) * tileCost;
+	}
+	
+	/** helper method that adds a state to the open set. */
+	private void push(int state, int goalCol, int goalRow) {
+		heap[heapSize] = state;
+		heapIndex[state] = heapSize;
+		heapSize++;
+		siftUp(heapSize - 1, goalCol, goalRow);
+	}
+	
+	/** helper method that removes the state with the lowest priority from the open set. */
+	private int pop(int goalCol, int goalRow) {
+		int top = heap[0];
+		heapIndex[top] = -1;
+		heapSize--;
+		if (heapSize > 0) {
+			heap[0] = heap[heapSize];
+			heapIndex[heap[0]] = 0;
+			siftDown(0, goalCol, goalRow);
+		}
+		return top;
+	}
+	
+	/** helper method that moves a heap entry up until its parent has a lower priority. */
+	private void siftUp(int i, int goalCol, int goalRow) {
+		int state = heap[i];
+		int p = priority(state, goalCol, goalRow);
+		while (i > 0) {
+			int up = (i - 1) >> 1;
+			if (priority(heap[up], goalCol, goalRow) <= p)
+				break;
+			heap[i] = heap[up];
+			heapIndex[heap[i]] = i;
+			i = up;
+		}
+		heap[i] = state;
+		heapIndex[state] = i;
+	}
+	
+	/** helper method that moves a heap entry down until its children have higher priorities. */
+	private void siftDown(int i, int goalCol, int goalRow) {
+		int state = heap[i];
+		int p = priority(state, goalCol, goalRow);
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize
+					&& priority(heap[child + 1], goalCol, goalRow) < priority(heap[child], goalCol, goalRow))
+				child++;
+			if (priority(heap[child], goalCol, goalRow) >= p)
+				break;
+			heap[i] = heap[child];
+			heapIndex[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = state;
+		heapIndex[state] = i;
+	}
+}
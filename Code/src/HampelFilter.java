@@ -0,0 +1,73 @@
+/**
+ * Hampel outlier filter.
+ * 
+ * A reading further from the median of the last readings than a multiple of their scaled
+ * median absolute deviation (MAD) is treated as an outlier and replaced by that median; any
+ * other reading passes through unchanged. Unlike a plain median filter this leaves real steps
+ * in the readings (a wall edge) untouched once they are confirmed by the following readings.
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ */
+public class HampelFilter implements SampleFilter {
+	
+	/** factor turning the MAD into an estimate of the standard deviation of normal noise */
+	private static final double MAD_SCALE = 1.4826;
+	
+	/** median of the window */
+	private RunningMedian median;
+	
+	/** number of scaled MADs a reading may be away from the median */
+	private double threshold;
+	
+	/** smallest deviation ever treated as an outlier, so a window of equal readings does not reject every change */
+	private double minDeviation;
+	
+	/** scratch array for the absolute deviations */
+	private double [] deviations;
+	
+	/**
+	 * default constructor.
+	 * @param window number of readings the median and MAD are taken over (including the new one).
+	 * @param threshold number of scaled MADs beyond which a reading is an outlier, typically 3.
+	 * @param minDeviation smallest deviation from the median treated as an outlier, in reading units.
+	 */
+	public HampelFilter(int window, double threshold, double minDeviation) {
+		median = new RunningMedian(window);
+		this.threshold = threshold;
+		this.minDeviation = minDeviation;
+		deviations = new double [window];
+	}
+	
+	/**
+	 * feeds the next reading.
+	 * @param sample the reading.
+	 * @return the reading, or the median of the window if the reading is an outlier.
+	 */
+	public double filter(double sample) {
+		double m = median.filter(sample);
+		
+		// median of the absolute deviations, by insertion sort: windows are a handful of readings
+		int n = median.copyWindow(deviations);
+		for (int i = 0; i < n; i++) {
+			double d = Math.abs(deviations[i] - m);
+			int j = i;
+			while (j > 0 && deviations[j - 1] > d) {
+				deviations[j] = deviations[j - 1];
+				j--;
+			}
+			deviations[j] = d;
+		}
+		double mad = (n & 1) != 0 ? deviations[n / 2] : (deviations[n / 2 - 1] + deviations[n / 2]) / 2.0;
+		
+		double limit = Math.max(threshold * MAD_SCALE * mad, minDeviation);
+		return Math.abs(sample - m) > limit ? m : sample;
+	}
+	
+	/**
+	 * forgets all readings fed so far.
+	 */
+	public void reset() {
+		median.reset();
+	}
+}
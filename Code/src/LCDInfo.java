@@ -17,7 +17,7 @@ public class LCDInfo implements TimerListener{
 	public static final int LCD_REFRESH = 100;
 	
 	/** reference to the odometer of the robot*/
-	private Odometer odo;
+	private PositionProvider odo;
 	
 	/**timer that handles execution of tasks at each refresh rate*/
 	private Timer lcdTimer;
@@ -25,6 +25,9 @@ public class LCDInfo implements TimerListener{
 	/**array for displaying data*/
 	private double [] pos;
 	
+	/**latest status message, drawn under the position on the next refresh */
+	private static volatile String status;
+	
 	/**
 	 * Default constructor
 	 * 
@@ -32,7 +35,16 @@ public class LCDInfo implements TimerListener{
 	 * odometer and the lcd Refresh timer.
 	 * @param odo odometer that is being used by the robot
 	 */
-	public LCDInfo(Odometer odo) {
+	public LCDInfo(PositionProvider odo) {
+		this(odo, true);
+	}
+	
+	/**
+	 * secondary constructor that can leave the refresh to a PeriodicExecutor.
+	 * @param odo odometer that is being used by the robot
+	 * @param start true to start the refresh timer, false when timedOut() is called by a PeriodicExecutor every LCD_REFRESH.
+	 */
+	public LCDInfo(PositionProvider odo, boolean start) {
 		this.odo = odo;
 		this.lcdTimer = new Timer(LCD_REFRESH, this);
 		
@@ -40,7 +52,8 @@ public class LCDInfo implements TimerListener{
 		pos = new double [3];
 		
 		// start the timer
-		lcdTimer.start();
+		if (start)
+			lcdTimer.start();
 	}
 	
 	/**
@@ -56,5 +69,17 @@ public class LCDInfo implements TimerListener{
 		LCD.drawInt((int)(pos[0] ), 3, 0);
 		LCD.drawInt((int)(pos[1] ), 3, 1);
 		LCD.drawInt((int)pos[2], 3, 2);
+		String status = LCDInfo.status;
+		if (status != null)
+			LCD.drawString(status, 0, 6);
+	}
+	
+	/**
+	 * posts a status message for the display. Never blocks or draws, so time critical threads can
+	 * call it; the message is drawn by the next refresh and replaces the previous one.
+	 * @param message the message, null to clear it.
+	 */
+	public static void setStatus(String message) {
+		status = message;
 	}
 }
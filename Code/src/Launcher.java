@@ -22,15 +22,56 @@ public class Launcher {
 	 */
 	private int launchSpeed = 250;
 	
+	/**distance (cm) from the robot at which a ball lands, along its heading */
+	public static final double LAUNCH_RANGE = 143.77;
+	
+	/**distance (cm) the landing point is shifted to the right of the heading */
+	public static final double LAUNCH_OFFSET = 1.14;
+	
+	/**size of a tile (cm) and number of tiles per side of the target table */
+	private static final double TILE = 30;
+	private static final int TARGET_TILES = 16;
+	
+	/**bounds (cm, on both axes) of the zone the robot may launch from */
+	private static final double ZONE_MIN = -15, ZONE_MAX = 315;
+	
+	/**most feasible arcs per target tile */
+	private static final int MAX_ARCS = 4;
+	
+	/**engine firing the shots in the background */
+	private FiringEngine engine;
+	
+	/**launch table: number of arcs of each tile, and their (start, end) headings in tenths of a degree.
+	 * arcCount is set last and is volatile, so a table seen through it is complete */
+	private volatile byte [] arcCount;
+	private short [] arcs;
+	
 	
 	/**
-	 * Performs a single shot from the launcher.
+	 * gets the launcher ready to fire: sets the launch speed and turns the arm part of the way into
+	 * the first shot, so that shot only covers the rest of the turn. Meant to run while the robot
+	 * drives to the launch position; returns once the arm is in place.
 	 */
-	public static void shoot() {
-
-		launcherMotor.forward();
-		launcherMotor.setSpeed(200);
-		launcherMotor.rotate(-360);
+	public void prepare() {
+		engine.setSpeed(launchSpeed);
+		engine.prime();
+	}
+	
+	/**
+	 * default constructor. Starts the firing engine; the arm has to be in the chamber position.
+	 */
+	public Launcher() {
+		engine = new FiringEngine(launcherMotor, launchSpeed);
+		engine.start();
+	}
+	
+	/**
+	 * Performs a single shot from the launcher, through the firing engine like the other modes.
+	 * Returns once the launcher is chambered again.
+	 */
+	public void shoot() {
+		engine.fire(1);
+		engine.awaitIdle(0);
 	}
 	
 	/**
@@ -39,86 +80,200 @@ public class Launcher {
 	 * @param shots number of shots to perform
 	 */
 	public void pauseLaunch(int shots){
-		launcherMotor.setSpeed(launchSpeed);
 		for (int i = 0; i < shots; i++){
 			//Display the launch on screen
 			LCD.drawString("Launch", 8, 0);
 			LCD.drawInt(i+1, 8, 1);
 			//Wait for button press before launching
 			Button.waitForAnyPress();
-			//Rotate only 360 and wait before next launch
-			launcherMotor.rotate(-360);
+			shoot();
 		}
 	}
 		
 		/**
 		 * Method to shoot the ball desired number of times (without button press req.)
+		 * Each shot is fired as soon as the launcher is chambered again. Blocks until all are fired;
+		 * use fire() to shoot without blocking.
 		 * @param shots number of shots to perform
 		 */
 		public void autoLaunch(int shots){
-			launcherMotor.setSpeed(launchSpeed);
-			for (int i = 0; i < shots; i++){
+			int first = engine.getFired();
+			engine.fire(shots);
+			int seen = first;
+			while (engine.awaitShot(seen, 0)) {
+				seen = engine.getFired();
 				//Display launch on screen
 				LCD.drawString("Launch", 8, 0);
-				LCD.drawInt(i+1, 8, 1);
-				//Go through one rotation (one launch)
-				launcherMotor.rotate(-360);
-				//Wait 2 seconds before next launch
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+				LCD.drawInt(seen - first, 8, 1);
 			}
 		}
 		
+		/**
+		 * queues shots and returns immediately; they are fired back to back as the launcher
+		 * chambers. pause() and resume() hold them, for instance to turn between two shots.
+		 * @param shots number of shots to perform
+		 */
+		public void fire(int shots){
+			engine.fire(shots);
+		}
 		
 		/**
-		 * returns the position data depending on the input target parameters.
-		 * @param x the X coordinate of the target 
-		 * @param y the Y coordinate of the target
-		 * @return the position and orientation of the robot required for launching.
+		 * holds the queued shots after the one being fired.
 		 */
-		public double[] getLaunchPos(int x, int y){
-			double[] dest = new double[3];
-			if (x<=8 && x>=6){
-				dest[0] = 30*x+32.7;
-				dest[1] = 30*y-140;
-				dest[2] = 346.4;
-			}
-			else if (x>=8 && x<=11){
-				dest[0] = 30*x-1.14;
-				dest[1] = 30*y-143.77;
-				dest[2] = 0;
-			}
-			else if (x>=11 && x<=13 && y<=15 && y>=12){
-				dest[0] = 30*x-75;
-				dest[1] = 30*y-122.65;
-				dest[2] = 30.986;
-			}
-			else if(y<=13 && y>=11 && x<=15 && x>=12){
-				dest[0] = 30*x+-122.65;
-				dest[1] = 30*y-75;
-				dest[2] = 38.106;
-			}
-			else if (y<=11 && y>=8 && x>=13 && x<=15){
-				dest[0] = 30*x-143.77;
-				dest[1] = 30*y+1.14;
-				dest[2] = 90;
+		public void pause(){
+			engine.pauseFiring();
+		}
+		
+		/**
+		 * fires the held shots.
+		 */
+		public void resume(){
+			engine.resumeFiring();
+		}
+		
+		/**
+		 * selects whether the launcher holds after every shot until resume() is called, so the
+		 * heading can be checked before each shot leaves.
+		 * @param hold true to hold after every shot, false to fire back to back.
+		 */
+		public void holdAfterShot(boolean hold){
+			engine.setHoldAfterShot(hold);
+		}
+		
+		/**
+		 * accessor for the firing engine, to wait for shots or read the shot counts.
+		 * @return the firing engine of this launcher.
+		 */
+		public FiringEngine getFiringEngine(){
+			return engine;
+		}
+		
+		
+		/**
+		 * fills the table of launch arcs, one set per target tile. Done once; getLaunchPos() does
+		 * it on first use if it has not been done before.
+		 * 
+		 * A launch lands LAUNCH_RANGE ahead of the robot and LAUNCH_OFFSET to its right, so the
+		 * poses that reach a target form a circle around it, one pose per heading. The headings
+		 * whose pose is inside the launch zone form at most four arcs (a circle crosses a
+		 * rectangle at most eight times), stored in tenths of a degree.
+		 */
+		public synchronized void buildLaunchTable() {
+			if (arcCount != null)
+				return;
+			byte [] counts = new byte [TARGET_TILES * TARGET_TILES];
+			arcs = new short [TARGET_TILES * TARGET_TILES * MAX_ARCS * 2];
+			double [] pose = new double [3];
+			
+			for (int tile = 0; tile < counts.length; tile++) {
+				double tx = TILE * (tile % TARGET_TILES), ty = TILE * (tile / TARGET_TILES);
+				
+				// start the scan at an infeasible heading, so no arc is split at 0 degrees
+				int first = -1;
+				for (int h = 0; h < 360; h++) {
+					if (!launchPose(tx, ty, h, pose)) {
+						first = h;
+						break;
+					}
+				}
+				if (first < 0) {
+					// reachable from every heading
+					arcs[tile * MAX_ARCS * 2] = 0;
+					arcs[tile * MAX_ARCS * 2 + 1] = 3599;
+					counts[tile] = 1;
+					continue;
+				}
+				
+				int arcStart = -1;
+				for (int k = 1; k <= 360; k++) {
+					int h = (first + k) % 360;
+					boolean feasible = launchPose(tx, ty, h, pose);
+					if (feasible && arcStart < 0) {
+						arcStart = h;
+					} else if (!feasible && arcStart >= 0) {
+						if (counts[tile] < MAX_ARCS) {
+							int i = (tile * MAX_ARCS + counts[tile]) * 2;
+							arcs[i] = (short) (arcStart * 10);
+							arcs[i + 1] = (short) (((h + 359) % 360) * 10);
+							counts[tile]++;
+						}
+						arcStart = -1;
+					}
+				}
 			}
-			else if (y<=8 && y>=6 && x<=15 && x>=12){
-				dest[0] = 30*x-142;
-				dest[1] = 30*y+22.49;
-				dest[2] = 98.546;
+			arcCount = counts;
+		}
+		
+		/**
+		 * computes the launch pose, closest to the robot, that reaches the target tile.
+		 * 
+		 * The closest pose on the launch circle is the one facing the target along the line from
+		 * the robot to it; if that heading is outside the feasible arcs, the nearest arc end is
+		 * used instead. Constant time once the table is built.
+		 * @param x the X coordinate (in tiles) of the target 
+		 * @param y the Y coordinate (in tiles) of the target
+		 * @param currentPos the current position of the robot (x, y, theta).
+		 * @param dest the position and orientation of the robot required for launching.
+		 * @return false if the target cannot be reached from the launch zone (dest is unchanged).
+		 */
+		public boolean getLaunchPos(int x, int y, double [] currentPos, double [] dest){
+			byte [] counts = arcCount;
+			if (counts == null) {
+				buildLaunchTable();
+				counts = arcCount;
 			}
-			else if (x>=13 && x<=14 && y>=13 && y<=14){
-				dest[0] = 30*x-101.66;
-				dest[1] = 30*y-101.66;
-				dest[2] = 44.546;
+			if (x < 0 || y < 0 || x >= TARGET_TILES || y >= TARGET_TILES) {
+				Sound.twoBeeps();
+				return false;
 			}
-			else{
+			int tile = y * TARGET_TILES + x;
+			int count = counts[tile];
+			if (count == 0) {
 				Sound.twoBeeps();
+				return false;
 			}
-			return dest;
+			
+			double tx = TILE * x, ty = TILE * y;
+			double heading = Odometer.fixDegAngle(FastTrig.atan2(tx - currentPos[0], ty - currentPos[1]));
+			double [] pose = dest;
+			double best = Double.MAX_VALUE, bestHeading = heading;
+			for (int a = 0; a < count; a++) {
+				int i = (tile * MAX_ARCS + a) * 2;
+				double start = arcs[i] / 10.0, end = arcs[i + 1] / 10.0;
+				if (Odometer.fixDegAngle(heading - start) <= Odometer.fixDegAngle(end - start)) {
+					bestHeading = heading;
+					best = -1;
+					break;
+				}
+				// outside this arc, try both of its ends
+				for (int e = 0; e < 2; e++) {
+					double h = e == 0 ? start : end;
+					launchPose(tx, ty, h, pose);
+					double dx = pose[0] - currentPos[0], dy = pose[1] - currentPos[1];
+					if (dx * dx + dy * dy < best) {
+						best = dx * dx + dy * dy;
+						bestHeading = h;
+					}
+				}
+			}
+			launchPose(tx, ty, bestHeading, dest);
+			return true;
+		}
+		
+		/**
+		 * helper method that computes the pose launching at a target with a given heading.
+		 * @param tx x of the target.
+		 * @param ty y of the target.
+		 * @param heading heading of the robot.
+		 * @param pose array receiving the x, y and heading of the pose.
+		 * @return true if the pose is inside the launch zone.
+		 */
+		private static boolean launchPose(double tx, double ty, double heading, double [] pose) {
+			double s = FastTrig.sin(heading), c = FastTrig.cos(heading);
+			// the ball lands LAUNCH_RANGE ahead and LAUNCH_OFFSET to the right (cos, -sin) of the robot
+			pose[0] = tx - LAUNCH_RANGE * s - LAUNCH_OFFSET * c;
+			pose[1] = ty - LAUNCH_RANGE * c + LAUNCH_OFFSET * s;
+			pose[2] = heading;
+			return pose[0] >= ZONE_MIN && pose[0] <= ZONE_MAX && pose[1] >= ZONE_MIN && pose[1] <= ZONE_MAX;
 		}
 }
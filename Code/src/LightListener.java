@@ -1,6 +1,6 @@
 
 import lejos.nxt.ColorSensor;
-import lejos.nxt.Sound;
+import lejos.util.TimerListener;
 
 /**
  * Buffer class between Color sensor and anything that uses it.
@@ -10,7 +10,7 @@ import lejos.nxt.Sound;
  * @author Bobak Hamed-Baghi, Victor Repkow
  * @version V1.1 Revision 2
  */
-public class LightListener extends Thread{
+public class LightListener implements TimerListener{
 	
 	/**Light sensor period length. Controlls the frequency at which the light sensor polls. */
 	private final int LS_PERIOD = 20;
@@ -21,8 +21,30 @@ public class LightListener extends Thread{
 	/**Triggering threshold that decides when the change in the data is "abrupt" enough. */
 	private final int DIFF_THRESH_AMOUNT = 1;
 	
-	/** Array that contains the sensor data being processed by the filter*/
-	private double[] lsData= new double[FILTER_DATA_SIZE];
+	/**Number of samples kept in the sample buffer. */
+	private final int BUFFER_SIZE = 16;
+	
+	/** Buffer of the light sensor samples, written by timedOut() and read by the filter*/
+	private SampleBuffer lsData = new SampleBuffer(BUFFER_SIZE);
+	
+	/**Differential terms (+1, -1 or 0) of the last FILTER_DATA_SIZE-1 sample pairs, as a ring. */
+	private int[] terms = new int[FILTER_DATA_SIZE-1];
+	
+	/**Running sum of terms, the differential filter's score. Positive while a line is in the window. */
+	private volatile int score;
+	
+	/**Number of lines detected so far and the sample time of the last one. */
+	private volatile int lineCount;
+	private volatile long lastLineTime;
+	
+	/**clock whose frame time stamps the samples, null to stamp them with SampleClock.now() */
+	private SampleClock clock;
+	
+	/**Listeners told about every line edge. Replaced as a whole when one is added or removed. */
+	private volatile LineListener[] lineListeners = new LineListener[0];
+	
+	/**previous sample and number of samples taken, kept between two calls of timedOut() */
+	private int previous, samples;
 	
 	/** The color sensor which is used (and encapsulated) using this class */
 	ColorSensor ls;
@@ -36,24 +58,63 @@ public class LightListener extends Thread{
 	}
 	
 	
-	/** run method to start this thread. 
-	 * this initiates a loop that constantly takes in sensor data 
-	 * and stores it in the data array "lsData"
+	/**
+	 * takes one light sensor sample, stores it in the sample buffer "lsData", updates the
+	 * differential filter and tells the listeners about a detected edge. Called every LS_PERIOD
+	 * by a PeriodicExecutor or a SampleClock, always from the same thread.
 	 */
-	public void run(){
+	public void timedOut(){
+		if (samples == 0) {
+			ls.setFloodlight(true);
+			previous = ls.getRawLightValue();
+		}
+		int value = ls.getRawLightValue();
+		long time = clock != null ? clock.getFrameTime() : SampleClock.now();
+		lsData.push(value, time);
 		
-		ls.setFloodlight(true);
+		// replace the oldest differential term of the window with the one of the new sample
+		int diff = value - previous;
+		int term = diff > DIFF_THRESH_AMOUNT*LS_PERIOD ? 1 : diff < -DIFF_THRESH_AMOUNT*LS_PERIOD ? -1 : 0;
+		int slot = samples % terms.length;
+		int newScore = score - terms[slot] + term;
+		terms[slot] = term;
+		previous = value;
+		samples++;
+		
+		// a line is detected when the score turns positive, an opposite edge when it turns negative
+		int polarity = 0;
+		if (newScore > 0 && score <= 0) {
+			lastLineTime = time;
+			lineCount++;
+			polarity = 1;
+		} else if (newScore < 0 && score >= 0) {
+			polarity = -1;
+		}
+		score = newScore;
 		
-		while(true){
-			leftShiftArray(lsData);
-			lsData[lsData.length-1]= ls.getRawLightValue();
-			
-			try{
-				Thread.sleep(LS_PERIOD);
-			} catch(Exception e){}
+		if (polarity != 0) {
+			LineListener[] listeners = lineListeners;
+			for (int i = 0; i < listeners.length; i++)
+				listeners[i].lineDetected(time, value, polarity);
 		}
 	}
 	
+	/**
+	 * stamps the samples with the frames of a clock. The clock then has to call timedOut(), after
+	 * the odometer if poses of the same frame are wanted.
+	 * @param clock the clock.
+	 */
+	public void setSampleClock(SampleClock clock){
+		this.clock = clock;
+	}
+	
+	/**
+	 * @return the sampling period of the light sensor, in ms.
+	 */
+	public int getPeriod(){
+		return LS_PERIOD;
+	}
+	
 	/**
 	 * method that obtains the rawLightValue read by the light sensor
 	 * @return ColorSensor's reading of the light intensity
@@ -63,48 +124,65 @@ public class LightListener extends Thread{
 	}
 	
 	/**
-	 * helper method that performs a left shift operation on the 
-	 * members of an array. 
-	 * 
-	 * used for maintaining a moving window data set lsData 
-	 * which is used by the filter to detect lines
-	 * 
-	 * @param array the array to perform left shift on.
+	 * accessor for the buffer of light sensor samples.
+	 * @return the sample buffer filled by this thread.
 	 */
-	public void leftShiftArray(double[] array){
-		for(int i=1; i<array.length; i++){
-			array[i -1]= array[i];
-		}
-		array[array.length-1]=0;
+	public SampleBuffer getSamples(){
+		return lsData;
 	}
 	
 	/**
 	 * Light sensor's differential filter.
 	 * 
-	 * this method takes the dataSet of the lightsensor readings, lsData
-	 * and performs a differentiation operation on each element to determine wether
-	 * a line has been detected or not depending on a threashold value DIFF_THRESH_AMOUNT
+	 * the filter differentiates each new lightsensor reading against the previous one in the
+	 * sensor thread and keeps a running count of the abrupt rises (over the threashold value
+	 * DIFF_THRESH_AMOUNT) minus the abrupt drops over the last FILTER_DATA_SIZE readings.
+	 * This only reads the current count.
 	 * 
 	 * @return true if line has been detected, false otherwise
 	 */
 	public boolean diffGetGridLine(){
-		double Data[] = lsData;
-		int counter=0;
-		for(int i=0; i<Data.length-1; i++){
-			if((Data[i+1]-Data[i])/LS_PERIOD > DIFF_THRESH_AMOUNT){
-				counter++;
-			}
-			
-			if((Data[i+1]-Data[i])/LS_PERIOD < -DIFF_THRESH_AMOUNT){
-				counter--;
+		return score > 0;
+	}
+	
+	/**
+	 * @return the number of lines detected since the thread started.
+	 */
+	public int getLineCount(){
+		return lineCount;
+	}
+	
+	/**
+	 * @return the time (as given by SampleClock.now()) of the sample that detected the last line.
+	 */
+	public long getLastLineTime(){
+		return lastLineTime;
+	}
+	
+	/**
+	 * subscribes a listener to the line edges, called from this thread as soon as an edge is detected.
+	 * @param listener the listener to add.
+	 */
+	public synchronized void addLineListener(LineListener listener){
+		LineListener[] listeners = new LineListener[lineListeners.length + 1];
+		System.arraycopy(lineListeners, 0, listeners, 0, lineListeners.length);
+		listeners[lineListeners.length] = listener;
+		lineListeners = listeners;
+	}
+	
+	/**
+	 * unsubscribes a listener added with addLineListener().
+	 * @param listener the listener to remove.
+	 */
+	public synchronized void removeLineListener(LineListener listener){
+		for (int i = 0; i < lineListeners.length; i++) {
+			if (lineListeners[i] == listener) {
+				LineListener[] listeners = new LineListener[lineListeners.length - 1];
+				System.arraycopy(lineListeners, 0, listeners, 0, i);
+				System.arraycopy(lineListeners, i + 1, listeners, i, listeners.length - i);
+				lineListeners = listeners;
+				return;
 			}
 		}
-		if(counter >0){
-			Sound.beep();
-			return true;
-		}
-		return false;
 	}
-
-
 }
@@ -1,6 +1,5 @@
 
 import lejos.nxt.LCD;
-import lejos.nxt.Sound;
 
 /**
  * class that handles the light localization of the robot
@@ -13,6 +12,10 @@ import lejos.nxt.Sound;
  *
  */
 public class LightLocalizer {
+	
+	/**enum defining how the crossings of a localization are turned into a position. */
+	public enum LocalizationMode { FOUR_LINES, LEAST_SQUARES };
+	
 	/** reference to the robot's odometer
 	 * 
 	 * essential since the odometer's values are read and overwritten in this class. 
@@ -26,7 +29,12 @@ public class LightLocalizer {
 	/** Color Sensor distance from the odometery center
 	 * used in calculations in the localization process to determine the exact position
 	 */
-	private double lsDistance = 13.4 ;
+	private double lsDistance = TwoWheeledRobot.LIGHT_SENSOR_DISTANCE;
+	
+	/** Color Sensor distance used by the FOUR_LINES formulas. calibrated through testing together
+	 * with MANUAL_ANGLE_SHIFT, so it is kept apart from the measured lsDistance.
+	 */
+	private final double FOUR_LINES_DISTANCE = 13.4;
 	
 	/** variable that stores the angle detected when hitting the x-axis */
 	private double thetaX;
@@ -54,6 +62,42 @@ public class LightLocalizer {
 	/**Light listener class that holds the lightsensor used by this class*/
 	private LightListener lightListener;
 	
+	/**queue of the line crossings reported by the lightListener */
+	private LineEventQueue lines = new LineEventQueue(8);
+	
+	/**shortest time between two crossings (ms), later ones are the same line seen twice. */
+	private static final long LINE_DEBOUNCE = 500;
+	
+	/**how the localization computes the position */
+	private LocalizationMode mode = LocalizationMode.FOUR_LINES;
+	
+	/**rotation speed and total rotation of the LEAST_SQUARES sweep */
+	private static final double SWEEP_SPEED = 40, SWEEP_ANGLE = 400;
+	
+	/**largest rotation of the FOUR_LINES turn: four lines are crossed within one turn, so missing
+	 * them after this much means a line was missed or two were merged */
+	private static final double FOUR_LINES_ANGLE = 450;
+	
+	/**longest wait (ms) for a line before the rotation is checked again */
+	private static final long LINE_WAIT = 50;
+	
+	/**smallest rotation between two crossings (degrees), closer ones are the same line seen twice */
+	private static final double CROSSING_SEPARATION = 8;
+	
+	/**most crossings recorded by one sweep */
+	private static final int MAX_CROSSINGS = 16;
+	
+	/**Gauss-Newton iterations of the fit, and the heading range (degrees) searched for its start */
+	private static final int FIT_ITERATIONS = 10, START_SEARCH = 30;
+	
+	/**odometer heading of each crossing of the sweep, and the line (0 is x = 0, 1 is y = 0) it is assigned to */
+	private double [] crossing = new double [MAX_CROSSINGS];
+	private int [] crossingLine = new int [MAX_CROSSINGS];
+	private int crossings;
+	
+	/**fitted x, y and heading offset of the odometer */
+	private double fitX, fitY, fitOffset;
+	
 	
 	/**
 	 * Default constructor. Initializes the required references to other components of the robot.
@@ -64,46 +108,74 @@ public class LightLocalizer {
 		this.odo = odo;
 		this.robot = odo.getTwoWheeledRobot();
 		this.lightListener = lightListener;	
+		lightListener.addLineListener(lines);
+	}
+	
+	/**
+	 * selects how the next localizations compute the position.
+	 * @param mode FOUR_LINES for the trigonometric solution from the first four crossings,
+	 * 			LEAST_SQUARES for a fit over all the crossings of one full turn.
+	 */
+	public void setLocalizationMode(LocalizationMode mode) {
+		this.mode = mode;
 	}
 	
 	/**
 	 * Performs light localization.
 	 * 
 	 * The robot starts rotating in a clockwise motion and
-	 * detects lines. when four lines are detected, it uses trigonometery to calculate 
-	 * the correction of its position and orientation
+	 * detects lines. Each line is clocked with the heading the odometer had when the line 
+	 * was sampled. when four lines are detected, it uses trigonometery to calculate 
+	 * the correction of its position and orientation. If they are not all seen within
+	 * FOUR_LINES_ANGLE of rotation, the robot stops and the odometer is left as it was.
+	 * @return true if the odometer was corrected, false if the localization failed.
 	 */
-	public void doLocalization() {
+	public boolean doLocalization() {
+		if (mode == LocalizationMode.LEAST_SQUARES)
+			return doLeastSquaresLocalization();
+		
 		// start rotating and clock all 4 gridlines
 		// do trig to compute position and orientation
 		 
 		double pos[] = new double[3];
-		double deltaT;
-		while (gridLineNum < 4) {
-			odo.getPosition(pos);
-			robot.setRotationSpeed(20);
-			if (getGridLine()) {
-				Sound.beep();
+		long lastLine = 0;
+		gridLineNum = 0;
+		lines.clear();
+		odo.getPosition(pos);
+		double lastHeading = pos[2], swept = 0.0;
+		robot.setRotationSpeed(20);
+		while (gridLineNum < 4 && swept < FOUR_LINES_ANGLE && !Thread.currentThread().isInterrupted()) {
+			if (lines.take(LINE_WAIT) && lines.getPolarity() > 0 && lines.getTime() - lastLine >= LINE_DEBOUNCE) {
+				lastLine = lines.getTime();
+				odo.getPoseAt(lastLine, pos);
 				theta[gridLineNum] = pos[2];
 				gridLineNum++;
-				
-				try { 
-					Thread.sleep(500);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				this.robot.setRotationSpeed(0);	
-
-			}	
+			}
+			odo.getPosition(pos);
+			swept += Math.abs(Odometer.minimumAngleFromTo(lastHeading, pos[2]));
+			lastHeading = pos[2];
 		}
-
-
+		this.robot.setRotationSpeed(0);
 		
+		if (gridLineNum < 4) {
+			LCDInfo.setStatus("LS loc failed");
+			return false;
+		}
+		applyFourLines(pos);
+		return true;
+	}
+	
+	/**
+	 * corrects the odometer with the trigonometric solution from the four crossings in theta.
+	 * @param pos scratch pose array.
+	 */
+	private void applyFourLines(double [] pos) {
+		double deltaT;
 		odo.getPosition(pos);
 		thetaX = theta[2]-theta[0];
 		thetaY = theta[3]-theta[1];
-		x = -lsDistance * Math.cos(Math.toRadians(thetaY/2)); 
-		y = lsDistance * Math.cos(Math.toRadians(thetaX/2));
+		x = -FOUR_LINES_DISTANCE * FastTrig.cos(thetaY/2); 
+		y = FOUR_LINES_DISTANCE * FastTrig.cos(thetaX/2);
 		
 		LCD.drawString(String.valueOf(thetaY/2),0,5);
 		
@@ -113,19 +185,184 @@ public class LightLocalizer {
 		pos[2] = pos[2] + deltaT;
 		
 		odo.setPosition(pos, new boolean[] {true,true,true});
-
+	}
+	
+	/**
+	 * LEAST_SQUARES localization.
+	 * 
+	 * The robot turns a bit more than once around without stopping and records every crossing with
+	 * the odometer heading at the time the line was sampled. The light sensor at heading h lies
+	 * ahead of the robot at (x + lsDistance*sin(h), y + lsDistance*cos(h)), as in
+	 * OdometryCorrection, so each crossing of x = 0 or y = 0 is one equation in the position and
+	 * the heading offset of the odometer. All of them are solved together, which averages out the error of single crossings.
+	 * If the fit fails, the first four crossings are used as in FOUR_LINES.
+	 * @return true if the odometer was corrected, false if fewer than four crossings were seen.
+	 */
+	private boolean doLeastSquaresLocalization() {
+		double pos[] = new double[3];
+		crossings = 0;
+		lines.clear();
+		
+		odo.getPosition(pos);
+		double lastHeading = pos[2], swept = 0.0;
+		robot.setRotationSpeed(SWEEP_SPEED);
+		while (swept < SWEEP_ANGLE && !Thread.currentThread().isInterrupted()) {
+			if (lines.take(50) && lines.getPolarity() > 0) {
+				odo.getPoseAt(lines.getTime(), pos);
+				if (crossings == 0 || Math.abs(Odometer.minimumAngleFromTo(crossing[crossings - 1], pos[2])) > CROSSING_SEPARATION) {
+					if (crossings < MAX_CROSSINGS)
+						crossing[crossings++] = pos[2];
+				}
+			}
+			odo.getPosition(pos);
+			swept += Math.abs(Odometer.minimumAngleFromTo(lastHeading, pos[2]));
+			lastHeading = pos[2];
 		}
+		this.robot.setRotationSpeed(0);
+		
+		odo.getPosition(pos);
+		if (fitCrossings(pos[0], pos[1])) {
+			pos[0] = fitX;
+			pos[1] = fitY;
+			pos[2] = Odometer.fixDegAngle(pos[2] + fitOffset);
+			odo.setPosition(pos, new boolean[] {true,true,true});
+			LCD.drawString(String.valueOf(fitOffset),0,5);
+			return true;
+		} else if (crossings >= 4) {
+			for (int i = 0; i < 4; i++)
+				theta[i] = crossing[i];
+			applyFourLines(pos);
+			return true;
+		}
+		LCDInfo.setStatus("LS loc failed");
+		return false;
+	}
 	
+	/**
+	 * fits the position and heading offset to the recorded crossings.
+	 * 
+	 * The start is the best offset within START_SEARCH degrees of the odometer's heading, each with
+	 * the position solved for directly. Gauss-Newton then refines all three together; every
+	 * iteration assigns each crossing to the line it is closest to.
+	 * @param x the odometer's x, used when a line has no crossing.
+	 * @param y the odometer's y, used when a line has no crossing.
+	 * @return true if there were enough crossings of both lines for a fit.
+	 */
+	private boolean fitCrossings(double x, double y) {
+		if (crossings < 4)
+			return false;
+		
+		double best = Double.MAX_VALUE, bestOffset = 0;
+		for (int offset = -START_SEARCH; offset <= START_SEARCH; offset++) {
+			fitX = x;
+			fitY = y;
+			fitOffset = offset;
+			assignCrossings();
+			solvePosition();
+			assignCrossings();
+			double cost = cost();
+			if (cost < best) {
+				best = cost;
+				bestOffset = offset;
+			}
+		}
+		fitOffset = bestOffset;
+		fitX = x;
+		fitY = y;
+		assignCrossings();
+		solvePosition();
 		
+		double k = Math.PI / 180.0;
+		for (int iteration = 0; iteration < FIT_ITERATIONS; iteration++) {
+			assignCrossings();
+			
+			// normal equations of the linearized residuals, unknowns x, y and offset (degrees)
+			double axx = 0, ayy = 0, axt = 0, ayt = 0, att = 0, bx = 0, by = 0, bt = 0;
+			int onX = 0;
+			for (int i = 0; i < crossings; i++) {
+				double h = crossing[i] + fitOffset;
+				if (crossingLine[i] == 0) {
+					double r = fitX + lsDistance * FastTrig.sin(h);
+					double jt = lsDistance * FastTrig.cos(h) * k;
+					axx += 1; axt += jt; att += jt * jt;
+					bx += r; bt += jt * r;
+					onX++;
+				} else {
+					double r = fitY + lsDistance * FastTrig.cos(h);
+					double jt = -lsDistance * FastTrig.sin(h) * k;
+					ayy += 1; ayt += jt; att += jt * jt;
+					by += r; bt += jt * r;
+				}
+			}
+			if (onX == 0 || onX == crossings)
+				return false;
+			
+			// eliminate x and y, then solve for the offset step
+			double schur = att - axt * axt / axx - ayt * ayt / ayy;
+			if (schur <= 1e-9)
+				return false;
+			double dt = -(bt - axt * bx / axx - ayt * by / ayy) / schur;
+			double dx = -(bx + axt * dt) / axx;
+			double dy = -(by + ayt * dt) / ayy;
+			fitX += dx;
+			fitY += dy;
+			fitOffset += dt;
+			if (Math.abs(dx) < 0.01 && Math.abs(dy) < 0.01 && Math.abs(dt) < 0.01)
+				break;
+		}
+		return true;
+	}
+	
 	/**
-	 * true when grid line detected. This is verified using the lightListener's implemented
-	 * differencial filter functionality.
-	 * @return
+	 * helper method that assigns each crossing to the line its current residual is smallest for.
 	 */
-	private boolean getGridLine(){
-		return lightListener.diffGetGridLine();
+	private void assignCrossings() {
+		for (int i = 0; i < crossings; i++) {
+			double h = crossing[i] + fitOffset;
+			double rx = fitX + lsDistance * FastTrig.sin(h);
+			double ry = fitY + lsDistance * FastTrig.cos(h);
+			crossingLine[i] = Math.abs(rx) <= Math.abs(ry) ? 0 : 1;
+		}
 	}
-
+	
+	/**
+	 * helper method that solves x and y for the current heading offset and line assignment.
+	 * A line without crossings keeps its coordinate.
+	 */
+	private void solvePosition() {
+		double sx = 0, sy = 0;
+		int nx = 0, ny = 0;
+		for (int i = 0; i < crossings; i++) {
+			double h = crossing[i] + fitOffset;
+			if (crossingLine[i] == 0) {
+				sx -= lsDistance * FastTrig.sin(h);
+				nx++;
+			} else {
+				sy -= lsDistance * FastTrig.cos(h);
+				ny++;
+			}
+		}
+		if (nx > 0)
+			fitX = sx / nx;
+		if (ny > 0)
+			fitY = sy / ny;
+	}
+	
+	/**
+	 * helper method that computes the sum of the squared residuals of the crossings.
+	 * @return the cost of the current fit.
+	 */
+	private double cost() {
+		double sum = 0;
+		for (int i = 0; i < crossings; i++) {
+			double h = crossing[i] + fitOffset;
+			double r = crossingLine[i] == 0 ? fitX + lsDistance * FastTrig.sin(h) : fitY + lsDistance * FastTrig.cos(h);
+			sum += r * r;
+		}
+		return sum;
+	}
+	
+		
 /**
  * converts an angle from degrees to radians
  * @param inAngle angle in degrees 
@@ -0,0 +1,99 @@
+/**
+ * Queue of line crossing events between the light sensor thread and one consumer thread.
+ * 
+ * Registered with LightListener.addLineListener(), it stores every event in a preallocated ring
+ * and wakes up the consumer blocked in take(). The consumer then reads the event it took with 
+ * getTime(), getRawValue() and getPolarity(). When the consumer falls behind, the oldest events
+ * are dropped.
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ */
+public class LineEventQueue implements LineListener {
+	
+	/** queued events, as a ring */
+	private long [] times;
+	private int [] rawValues, polarities;
+	
+	/** index of the oldest queued event and number of queued events */
+	private int head, size;
+	
+	/** the event last returned by take() */
+	private long time;
+	private int rawValue, polarity;
+	
+	/**
+	 * default constructor.
+	 * @param capacity number of events kept while the consumer is busy.
+	 */
+	public LineEventQueue(int capacity) {
+		times = new long [capacity];
+		rawValues = new int [capacity];
+		polarities = new int [capacity];
+	}
+	
+	/**
+	 * queues an event and wakes up the consumer. Called by the light sensor thread.
+	 */
+	public synchronized void lineDetected(long time, int rawValue, int polarity) {
+		if (size == times.length) {
+			head = (head + 1) % times.length;
+			size--;
+		}
+		int i = (head + size) % times.length;
+		times[i] = time;
+		rawValues[i] = rawValue;
+		polarities[i] = polarity;
+		size++;
+		notifyAll();
+	}
+	
+	/**
+	 * takes the oldest queued event, waiting for one if the queue is empty.
+	 * @param timeout longest time to wait, in ms; 0 waits until an event arrives.
+	 * @return true if an event was taken, false if the timeout expired or the thread was interrupted.
+	 */
+	public synchronized boolean take(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (size == 0) {
+			long left = deadline - System.currentTimeMillis();
+			if (timeout > 0 && left <= 0)
+				return false;
+			try {
+				wait(timeout > 0 ? left : 0);
+			} catch (InterruptedException e) {
+				// keep the interrupt visible to the consumer's loop
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		time = times[head];
+		rawValue = rawValues[head];
+		polarity = polarities[head];
+		head = (head + 1) % times.length;
+		size--;
+		return true;
+	}
+	
+	/**
+	 * drops all queued events, for instance the ones seen before a manoeuvre starts.
+	 */
+	public synchronized void clear() {
+		size = 0;
+	}
+	
+	/** @return the sample time of the event last taken. */
+	public long getTime() {
+		return time;
+	}
+	
+	/** @return the raw light value of the event last taken. */
+	public int getRawValue() {
+		return rawValue;
+	}
+	
+	/** @return the polarity (+1 or -1) of the event last taken. */
+	public int getPolarity() {
+		return polarity;
+	}
+}
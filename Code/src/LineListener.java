@@ -0,0 +1,21 @@
+/**
+ * Interface of the classes that want to be told when the LightListener detects a grid line.
+ * 
+ * The callback runs on the light sensor thread, right after the sample that completed the
+ * detection, so implementations must return quickly. LineEventQueue is an implementation
+ * that hands the events over to another thread.
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ */
+public interface LineListener {
+	
+	/**
+	 * called when the light sensor crosses the edge of a grid line.
+	 * @param time the time (as given by SampleClock.now()) the detecting sample was taken.
+	 * @param rawValue the raw light value of the detecting sample.
+	 * @param polarity +1 when the readings rose abruptly (the detection reported by 
+	 * 				diffGetGridLine()), -1 when they dropped abruptly.
+	 */
+	public void lineDetected(long time, int rawValue, int polarity);
+}
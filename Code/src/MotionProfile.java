@@ -0,0 +1,190 @@
+/**
+ * Velocity profile of a point-to-point move.
+ * 
+ * Plans the fastest velocity curve that covers a given distance (cm for straight moves, degrees
+ * for in-place turns) from rest to rest within the configured speed, acceleration and jerk limits.
+ * Navigation plans one profile per move and samples it on every control tick.
+ * 
+ * TRAPEZOIDAL profiles accelerate at the maximum acceleration, cruise and decelerate. S_CURVE 
+ * profiles additionally limit the jerk, so the acceleration itself ramps up and down. Moves too
+ * short to reach the maximum speed peak at the highest speed they can reach. CONSTANT profiles
+ * run at the maximum speed for the whole move and leave the acceleration to the motors.
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow.
+ * @version V1.1 Revision 2
+ *
+ */
+public class MotionProfile {
+	
+	/**enum defining the shape of the velocity profile. */
+	public enum ProfileType { CONSTANT, TRAPEZOIDAL, S_CURVE };
+	
+	/**number of bisection steps used to find the peak speed of short S_CURVE moves */
+	private static final int PEAK_SEARCH_STEPS = 30;
+	
+	/**shape of the profile */
+	private ProfileType type;
+	
+	/**limits of the profile */
+	private double maxVelocity, maxAcceleration, maxJerk;
+	
+	/**planned values: peak speed and acceleration reached, jerk used */
+	private double peakVelocity, peakAcceleration, jerk;
+	
+	/**planned phase durations (s): jerk ramp, whole acceleration phase, cruise, whole move */
+	private double jerkTime, accelTime, cruiseTime, duration;
+	
+	/**
+	 * default constructor. Sets the limits; a move has to be planned before sampling the profile.
+	 * @param type the shape of the profile.
+	 * @param maxVelocity the highest speed of the move, per second.
+	 * @param maxAcceleration the highest acceleration of the move, per second squared.
+	 * @param maxJerk the highest jerk of the move, per second cubed (only used by S_CURVE).
+	 */
+	public MotionProfile(ProfileType type, double maxVelocity, double maxAcceleration, double maxJerk) {
+		this.type = type;
+		setLimits(maxVelocity, maxAcceleration, maxJerk);
+	}
+	
+	/**
+	 * changes the limits used by the next plan().
+	 * @param maxVelocity the highest speed of the move, per second.
+	 * @param maxAcceleration the highest acceleration of the move, per second squared.
+	 * @param maxJerk the highest jerk of the move, per second cubed.
+	 */
+	public void setLimits(double maxVelocity, double maxAcceleration, double maxJerk) {
+		this.maxVelocity = maxVelocity;
+		this.maxAcceleration = maxAcceleration;
+		this.maxJerk = maxJerk;
+	}
+	
+	/**
+	 * changes the shape used by the next plan().
+	 * @param type the shape of the profile.
+	 */
+	public void setType(ProfileType type) {
+		this.type = type;
+	}
+	
+	/**
+	 * @return the shape of the profile.
+	 */
+	public ProfileType getType() {
+		return type;
+	}
+	
+	/**
+	 * plans a move from rest to rest. Does not allocate.
+	 * @param distance the length of the move; the sign is ignored.
+	 */
+	public void plan(double distance) {
+		distance = Math.abs(distance);
+		
+		if (type == ProfileType.CONSTANT || distance == 0.0) {
+			peakVelocity = maxVelocity;
+			peakAcceleration = jerk = 0.0;
+			jerkTime = accelTime = 0.0;
+			cruiseTime = duration = distance / maxVelocity;
+			return;
+		}
+		
+		if (type == ProfileType.TRAPEZOIDAL) {
+			peakVelocity = Math.min(maxVelocity, Math.sqrt(distance * maxAcceleration));
+			peakAcceleration = maxAcceleration;
+			jerk = 0.0;
+			jerkTime = 0.0;
+			accelTime = peakVelocity / maxAcceleration;
+		} else {
+			// the acceleration phase of a symmetric S-curve covers peakVelocity * accelTime / 2,
+			// which grows with the peak speed, so short moves bisect for the peak they can reach
+			double v = maxVelocity;
+			if (v * sCurveAccelTime(v) > distance) {
+				double lo = 0.0, hi = maxVelocity;
+				for (int i = 0; i < PEAK_SEARCH_STEPS; i++) {
+					v = (lo + hi) / 2.0;
+					if (v * sCurveAccelTime(v) > distance)
+						hi = v;
+					else
+						lo = v;
+				}
+				v = lo;
+			}
+			peakVelocity = v;
+			accelTime = sCurveAccelTime(v);
+			if (v >= maxAcceleration * maxAcceleration / maxJerk) {
+				jerkTime = maxAcceleration / maxJerk;
+				peakAcceleration = maxAcceleration;
+			} else {
+				jerkTime = Math.sqrt(v / maxJerk);
+				peakAcceleration = maxJerk * jerkTime;
+			}
+			jerk = jerkTime > 0.0 ? peakAcceleration / jerkTime : 0.0;
+		}
+		
+		// the acceleration and deceleration phases each cover peakVelocity * accelTime / 2
+		cruiseTime = peakVelocity > 0.0 ? (distance - peakVelocity * accelTime) / peakVelocity : 0.0;
+		if (cruiseTime < 0.0)
+			cruiseTime = 0.0;
+		duration = 2.0 * accelTime + cruiseTime;
+	}
+	
+	/**
+	 * helper method that computes how long an S-curve takes to reach a given speed from rest.
+	 * @param v the speed to reach.
+	 * @return the duration of the acceleration phase.
+	 */
+	private double sCurveAccelTime(double v) {
+		if (v >= maxAcceleration * maxAcceleration / maxJerk)
+			return v / maxAcceleration + maxAcceleration / maxJerk;
+		return 2.0 * Math.sqrt(v / maxJerk);
+	}
+	
+	/**
+	 * samples the planned profile.
+	 * @param t time since the start of the move, in seconds.
+	 * @return the speed at that time, 0 before the start and after the end of the move. CONSTANT
+	 * 			profiles keep their speed after the planned end, since they leave the move to the caller.
+	 */
+	public double velocityAt(double t) {
+		if (type == ProfileType.CONSTANT)
+			return t < 0.0 ? 0.0 : peakVelocity;
+		if (t < 0.0 || t > duration)
+			return 0.0;
+		if (t < accelTime)
+			return accelerationPhase(t);
+		if (t <= accelTime + cruiseTime)
+			return peakVelocity;
+		return accelerationPhase(duration - t);
+	}
+	
+	/**
+	 * helper method that samples the acceleration phase; the deceleration phase is its mirror image.
+	 * @param t time since the start of the acceleration phase.
+	 * @return the speed at that time.
+	 */
+	private double accelerationPhase(double t) {
+		if (type == ProfileType.TRAPEZOIDAL)
+			return peakAcceleration * t;
+		
+		if (t < jerkTime)
+			return jerk * t * t / 2.0;
+		if (t < accelTime - jerkTime)
+			return peakAcceleration * jerkTime / 2.0 + peakAcceleration * (t - jerkTime);
+		double left = accelTime - t;
+		return peakVelocity - jerk * left * left / 2.0;
+	}
+	
+	/**
+	 * @return the duration of the planned move, in seconds.
+	 */
+	public double getDuration() {
+		return duration;
+	}
+	
+	/**
+	 * @return the highest speed reached by the planned move.
+	 */
+	public double getPeakVelocity() {
+		return peakVelocity;
+	}
+}
@@ -17,7 +17,7 @@ import lejos.nxt.comm.RConsole;
 public class Navigation{
 	
 	/** Reference to the odometer which is used by the robot*/
-	private Odometer odo;
+	private PositionProvider odo;
 	
 	/** robot class reference. This class holds all the references to the motors and
 	 * contains helper function for movement. 
@@ -29,6 +29,45 @@ public class Navigation{
 	
 	final static int FAST = 10, SLOW = 40, ACCELERATION = 500;
 	
+	/** default period of the travelTo() control loop, in ms. */
+	public static final int DEFAULT_CONTROL_PERIOD = 20;
+	
+	/** period of the travelTo() control loop, in ms. */
+	private int controlPeriod = DEFAULT_CONTROL_PERIOD;
+	
+	/** release time of the next control tick. */
+	private long nextTick;
+	
+	/** number of control ticks run, and number of them that started after their deadline. */
+	private int controlTicks, deadlineMisses;
+	
+	/** motor acceleration used during profiled moves, high enough for the motors to follow the profile. */
+	public static final int PROFILE_ACCELERATION = 6000;
+	
+	/** jerk limit of the profiles, as a multiple of their acceleration limit (1/s). */
+	public static final double JERK_RATIO = 4.0;
+	
+	/** lowest speeds (cm/s and deg/s) used once a profile has ended short of its target. */
+	public static final double MIN_SPEED = 2.0, MIN_TURN_SPEED = 10.0;
+	
+	/** velocity profiles of the straight segments of travelTo() and of the turns of turnTo(). */
+	private MotionProfile forwardProfile, turnProfile;
+	
+	/** acceleration limits of the profiles (cm/s^2 and deg/s^2), derived from the motor acceleration. */
+	private double linearAcceleration, angularAcceleration;
+	
+	/** lookahead distance (cm) of the path following mode of travelToSequence(), 0 when disabled. */
+	private double lookahead;
+	
+	/** cruise speed (cm/s) and highest rotation speed (deg/s) of the path following mode. */
+	private double pathSpeed = FAST, pathTurnSpeed = 90.0;
+	
+	/** heading error (deg) above which path following first turns in place towards the path. */
+	private static final double PATH_START_TURN = 45.0;
+	
+	/**position arrays reused by the moves (turnPos by the turns, which the moves call) so that moving does not allocate */
+	private double [] pos = new double [3], turnPos = new double [3];
+	
 	
 	/**
 	 * Default Constructor.
@@ -37,9 +76,35 @@ public class Navigation{
 	 * 
 	 * @param odo odometer used by the robot.
 	 */
-	public Navigation(Odometer odo) {
+	public Navigation(PositionProvider odo) {
 		this.odo = odo;
 		this.robot = odo.getTwoWheeledRobot();
+		
+		// wheel acceleration in deg/s^2 converted to the robot's forward and in-place turn accelerations
+		double radii = robot.getLeftRadius() + robot.getRightRadius();
+		linearAcceleration = TwoWheeledRobot.ACCELERATION * Math.PI * radii / 360.0;
+		angularAcceleration = TwoWheeledRobot.ACCELERATION * radii / robot.getWidth();
+		forwardProfile = new MotionProfile(MotionProfile.ProfileType.CONSTANT, FAST,
+				linearAcceleration, JERK_RATIO * linearAcceleration);
+		turnProfile = new MotionProfile(MotionProfile.ProfileType.CONSTANT, FAST * 360.0 / (Math.PI * robot.getWidth()),
+				angularAcceleration, JERK_RATIO * angularAcceleration);
+	}
+	
+	/**
+	 * selects the velocity profile of the following moves.
+	 * 
+	 * With CONSTANT (the default) travelTo() drives at FAST and turnTo() uses blocking wheel rotations.
+	 * With TRAPEZOIDAL or S_CURVE each straight segment and each turn follows a profile planned
+	 * within the acceleration of TwoWheeledRobot.ACCELERATION and the given top speeds.
+	 * @param type the profile shape.
+	 * @param maxSpeed top forward speed of straight segments, in cm/s.
+	 * @param maxTurnSpeed top rotation speed of in-place turns, in deg/s.
+	 */
+	public void setMotionProfile(MotionProfile.ProfileType type, double maxSpeed, double maxTurnSpeed) {
+		forwardProfile.setType(type);
+		forwardProfile.setLimits(maxSpeed, linearAcceleration, JERK_RATIO * linearAcceleration);
+		turnProfile.setType(type);
+		turnProfile.setLimits(maxTurnSpeed, angularAcceleration, JERK_RATIO * angularAcceleration);
 	}
 	
 	/**
@@ -47,6 +112,9 @@ public class Navigation{
 	 * 
 	 * Takes in the (x,y) coordinates of the destination, orients itself
 	 * towards the destination, and starts traveling until destination is reached.
+	 * The heading is corrected once every control period and the robot only forwards
+	 * the wheel speeds to the motors when they change. The forward speed is sampled from
+	 * a velocity profile planned for the whole segment.
 	 * 
 	 * @param x target destination's x-cooridinate
 	 * @param y target destination's y-cooridinate
@@ -55,7 +123,6 @@ public class Navigation{
 		
 		robot.setSpeeds(0, 0);
 		robot.setAccelerations(robot.ACCELERATION);
-		double pos[] = new double[3];
 		double myX,myY,angle;
 		double minAng;
 		this.odo.getPosition(pos);
@@ -64,12 +131,18 @@ public class Navigation{
 		angle = pos[2];
 		
 		//Rotate to correct heading
-		minAng = (Math.atan2(x - myX, y - myY)) * (180.0 / Math.PI);
+		minAng = FastTrig.atan2(x - myX, y - myY);
 		if (minAng < 0)
 			minAng += 360.0;
 		
 		turnTo(minAng);
 		
+		forwardProfile.plan(Math.sqrt((x - myX) * (x - myX) + (y - myY) * (y - myY)));
+		if (forwardProfile.getType() != MotionProfile.ProfileType.CONSTANT)
+			robot.setAccelerations(PROFILE_ACCELERATION);
+		
+		long start = System.currentTimeMillis();
+		nextTick = start;
 		while (Math.abs(x - myX) > CM_ERR || Math.abs(y - myY) > CM_ERR) {
 			this.odo.getPosition(pos);
 			myX = pos[0];
@@ -77,7 +150,7 @@ public class Navigation{
 			angle = pos[2];
 			
 			//ANGULAR CORRECTION
-			minAng = (Math.atan2(x - myX, y - myY)) * (180.0 / Math.PI);
+			minAng = FastTrig.atan2(x - myX, y - myY);
 			if (minAng < 0)
 				minAng += 360.0;
 			
@@ -89,10 +162,13 @@ public class Navigation{
 				angleError = angleError+360;
 			}
 			
-			robot.setRotationSpeed(angleError);
+			double speed = forwardProfile.velocityAt((System.currentTimeMillis() - start) / 1000.0);
+			if (speed < MIN_SPEED)
+				speed = MIN_SPEED;
 			
-
-			robot.setForwardSpeed(10);
+			robot.setSpeeds(speed, angleError);
+			
+			waitForNextTick();
 		}
 		
 		robot.setAccelerations(6000);
@@ -100,22 +176,181 @@ public class Navigation{
 	}
 	
 	
+	/**
+	 * helper method that sleeps until the release time of the next control tick.
+	 * 
+	 * If the current tick already ran past that time, the miss is counted and the schedule is
+	 * re-anchored to now instead of running the late ticks back to back.
+	 */
+	private void waitForNextTick() {
+		nextTick += controlPeriod;
+		controlTicks++;
+		long now = System.currentTimeMillis();
+		if (now > nextTick) {
+			deadlineMisses++;
+			nextTick = now;
+			return;
+		}
+		try {
+			Thread.sleep(nextTick - now);
+		} catch (InterruptedException e) {
+			// nothing to do, the next tick simply starts early
+		}
+	}
+	
+	/**
+	 * sets the period of the travelTo() control loop.
+	 * @param period the new control period, in ms.
+	 */
+	public void setControlPeriod(int period) {
+		this.controlPeriod = period;
+	}
+	
+	/**
+	 * @return the number of control ticks run so far by travelTo().
+	 */
+	public int getControlTicks() {
+		return controlTicks;
+	}
+	
+	/**
+	 * @return the number of control ticks that overran their period.
+	 */
+	public int getDeadlineMisses() {
+		return deadlineMisses;
+	}
+	
 	/**
 	 * Helper function for a sequence of travelTo() commands to be 
 	 * executed in sequence.
 	 * 
 	 * This function takes in two arrays of x and y coordinates and performs a 
-	 * sequqnce of travelTo().
+	 * sequqnce of travelTo(), or follows them as one continuous path when path
+	 * following is enabled.
 	 * 
 	 * @param x the array of x Coordinates to travel to.
 	 * @param y the array of y Coordinates to travel to.
 	 */
 	public void travelToSequence(double[] x, double[] y){
+		if (lookahead > 0.0) {
+			followPath(x, y);
+			return;
+		}
 		for(int i=0; i<x.length; i++ ){
 			travelTo(x[i], y[i]);
 		}
 	}
 	
+	/**
+	 * enables the path following mode of travelToSequence().
+	 * 
+	 * Instead of stopping and turning at every waypoint, the robot steers towards the point of the
+	 * path lookahead cm ahead of it (pure pursuit). Corners are rounded off, with a radius that
+	 * grows with the lookahead, and the robot only slows down where the rotation speed would
+	 * exceed maxTurnSpeed and at the end of the path.
+	 * @param lookahead lookahead distance in cm, 0 to go back to a travelTo() per waypoint.
+	 * @param speed cruise speed along the path, in cm/s.
+	 * @param maxTurnSpeed highest rotation speed while following the path, in deg/s.
+	 */
+	public void setPathFollowing(double lookahead, double speed, double maxTurnSpeed) {
+		this.lookahead = lookahead;
+		this.pathSpeed = speed;
+		this.pathTurnSpeed = maxTurnSpeed;
+	}
+	
+	/**
+	 * Follows a sequence of waypoints as one continuous trajectory using pure pursuit.
+	 * 
+	 * The path starts at the current position of the robot. On each control tick the robot is 
+	 * projected on the current segment, the lookahead point is found by walking lookahead cm
+	 * further along the path, and the rotation speed is set to the curvature of the arc that
+	 * joins the robot to that point.
+	 * 
+	 * @param x the array of x Coordinates to travel through.
+	 * @param y the array of y Coordinates to travel through.
+	 */
+	private void followPath(double[] x, double[] y) {
+		int last = x.length - 1;
+		if (last < 0)
+			return;
+		
+		odo.getPosition(pos);
+		double startX = pos[0], startY = pos[1];
+		
+		// face the path first if it starts behind the robot
+		double firstHeading = FastTrig.atan2(x[0] - startX, y[0] - startY);
+		if (Math.abs(Odometer.minimumAngleFromTo(pos[2], firstHeading)) > PATH_START_TURN) {
+			turnTo(Odometer.fixDegAngle(firstHeading));
+			odo.getPosition(pos);
+		}
+		
+		robot.setAccelerations(TwoWheeledRobot.ACCELERATION);
+		
+		// segment i goes from waypoint i-1 (the start position for i = 0) to waypoint i
+		int segment = 0;
+		nextTick = System.currentTimeMillis();
+		while (true) {
+			double ax = segment == 0 ? startX : x[segment - 1];
+			double ay = segment == 0 ? startY : y[segment - 1];
+			double sx = x[segment] - ax, sy = y[segment] - ay;
+			double length = Math.sqrt(sx * sx + sy * sy);
+			
+			// progress along the current segment, in [0,1]
+			double t = length > 0.0 ? ((pos[0] - ax) * sx + (pos[1] - ay) * sy) / (length * length) : 1.0;
+			if (t >= 1.0 && segment < last) {
+				segment++;
+				continue;
+			}
+			
+			double toEndX = x[last] - pos[0], toEndY = y[last] - pos[1];
+			double toEnd = Math.sqrt(toEndX * toEndX + toEndY * toEndY);
+			if (toEnd <= CM_ERR || (segment == last && t >= 1.0))
+				break;
+			
+			// walk lookahead cm along the path from the projection of the robot
+			if (t < 0.0)
+				t = 0.0;
+			double remaining = lookahead;
+			double targetX = x[last], targetY = y[last];
+			double px = ax + sx * t, py = ay + sy * t;
+			for (int i = segment; i <= last; i++) {
+				double ex = x[i] - px, ey = y[i] - py;
+				double left = Math.sqrt(ex * ex + ey * ey);
+				if (left >= remaining) {
+					targetX = px + ex * remaining / left;
+					targetY = py + ey * remaining / left;
+					break;
+				}
+				remaining -= left;
+				px = x[i];
+				py = y[i];
+			}
+			
+			// curvature of the arc to the lookahead point: 2 * lateral offset / distance^2
+			double dx = targetX - pos[0], dy = targetY - pos[1];
+			double lateral = dx * FastTrig.cos(pos[2]) - dy * FastTrig.sin(pos[2]);
+			double distanceSq = dx * dx + dy * dy;
+			double curvature = distanceSq > 0.0 ? 2.0 * lateral / distanceSq : 0.0;
+			
+			// slow down to stop at the end of the path and to stay within the turn speed
+			double speed = Math.min(pathSpeed, Math.sqrt(2.0 * linearAcceleration * toEnd));
+			double rotation = speed * curvature * 180.0 / Math.PI;
+			if (Math.abs(rotation) > pathTurnSpeed) {
+				speed *= pathTurnSpeed / Math.abs(rotation);
+				rotation = rotation > 0 ? pathTurnSpeed : -pathTurnSpeed;
+			}
+			if (speed < MIN_SPEED)
+				speed = MIN_SPEED;
+			
+			robot.setSpeeds(speed, rotation);
+			waitForNextTick();
+			odo.getPosition(pos);
+		}
+		
+		robot.setAccelerations(6000);
+		robot.setSpeeds(0, 0);
+	}
+	
 	/**
 	 * Main Turning method which rotates the robot to face the desired angle. 
 	 * 
@@ -126,11 +361,16 @@ public class Navigation{
 	 * @param desiredAngle angle at which robot must face at the end of the rotation process.
 	 */
 	void turnTo(double desiredAngle){
+		if (turnProfile.getType() != MotionProfile.ProfileType.CONSTANT) {
+			profiledTurnTo(desiredAngle);
+			return;
+		}
+		
 		robot.leftMotor.stop();
 		robot.rightMotor.stop();
-		double pos[]= new double[3]; 
-		odo.getPosition(pos);
-		double myAngle = pos[2];
+		robot.invalidateCommands();
+		odo.getPosition(turnPos);
+		double myAngle = turnPos[2];
 		
 		
 		double angleError = desiredAngle - myAngle;
@@ -149,10 +389,42 @@ public class Navigation{
 		
 		robot.leftMotor.rotate((int) -leftRotateAmount,true);
 		robot.rightMotor.rotate((int) rightRotateAmount, false);
+		robot.invalidateCommands();
 		robot.setForwardSpeed(0);		
 	}
 	
 	
+	/**
+	 * turns in place to the desired angle following the turn velocity profile.
+	 * 
+	 * The rotation speed is sampled from the profile on every control tick and the remaining
+	 * angle is re-read from the odometer, so the turn ends within DEG_ERR of the desired angle
+	 * even if the wheels lag behind the profile.
+	 * @param desiredAngle angle at which robot must face at the end of the rotation process.
+	 */
+	private void profiledTurnTo(double desiredAngle) {
+		odo.getPosition(turnPos);
+		double angleError = Odometer.minimumAngleFromTo(turnPos[2], desiredAngle);
+		
+		turnProfile.plan(angleError);
+		robot.setAccelerations(PROFILE_ACCELERATION);
+		
+		long start = System.currentTimeMillis();
+		nextTick = start;
+		while (Math.abs(angleError) > DEG_ERR) {
+			double speed = turnProfile.velocityAt((System.currentTimeMillis() - start) / 1000.0);
+			if (speed < MIN_TURN_SPEED)
+				speed = MIN_TURN_SPEED;
+			
+			robot.setSpeeds(0, angleError > 0 ? speed : -speed);
+			waitForNextTick();
+			
+			odo.getPosition(turnPos);
+			angleError = Odometer.minimumAngleFromTo(turnPos[2], desiredAngle);
+		}
+		robot.setSpeeds(0, 0);
+	}
+	
 	/**
 	 * helper method to convert angle to turn by robot into rotation angle amount to turn by wheels.
 	 * @param radius radius of the wheel.
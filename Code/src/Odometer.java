@@ -12,34 +12,86 @@ import lejos.util.TimerListener;
  * @version V1.1 Revision 2
  *
  */
-public class Odometer implements TimerListener {
+public class Odometer implements TimerListener, PositionProvider {
+	
+	/**enum defining how the heading change of a tick is applied when integrating the displacement.
+	 * EULER uses the heading at the end of the tick, MIDPOINT the heading halfway through the tick and
+	 * EXACT_ARC treats the tick as a circular arc, which is exact for constant wheel speeds.
+	 */
+	public enum IntegrationMode { EULER, MIDPOINT, EXACT_ARC };
 	
 	/** odometer period, used to control the update frequency of the odometer. */
 	public static final int DEFAULT_PERIOD = 25;
 	
+	/** number of samples kept in the pose history: 1.6 s of travel at the default period, 1.28 s when
+	 * ticked by a SampleClock at the 20 ms period of the light sensor. */
+	public static final int HISTORY_SIZE = 64;
+	
+	/** largest heading change (in degrees) per tick that the adaptive period aims for. */
+	public static final double MAX_HEADING_STEP = 2.0;
+	
+	/** largest displacement (in cm) per tick that the adaptive period aims for. */
+	public static final double MAX_DISPLACEMENT_STEP = 0.5;
+	
+	/** update masks of the single value mutators, given to the pose estimator */
+	private static final boolean [] X_ONLY = {true, false, false}, Y_ONLY = {false, true, false},
+			THETA_ONLY = {false, false, true};
+	
 	/** reference to the TwoWheeledRobot class used by robot*/
 	private TwoWheeledRobot robot;
 	
 	/**timer that handles updating the odometer */
 	private Timer odometerTimer;
 	
+	/**integration scheme used by timedOut() */
+	private IntegrationMode integrationMode = IntegrationMode.EULER;
+	
+	/**current timer period, and the bounds used when the period is adaptive (maxPeriod 0 means fixed)*/
+	private int period, minPeriod, maxPeriod;
+	
+	/**time of the previous tick, used to estimate the wheel speeds for the adaptive period */
+	private long lastTick;
+	
 	/**Navigation class used by robot to handle mobility tasks*/
 	private Navigation nav;
 	
+	/**clock whose frames stamp the ticks, null when the odometer reads the time itself */
+	private volatile SampleClock clock;
+	
+	/**estimator keeping the covariance of the position, null when the odometry is not fused */
+	private volatile PoseEstimator estimator;
+	
 	// position data
-	/**Lock object to ensure synchronization of position values when getting and setting position Variables*/
+	/**Lock object that serializes the writers of the position values (the timer and setPosition()).
+	 * Readers never take it, they use the sequence counter instead.*/
 	private Object lock;
 	
+	/**Sequence counter of the position values. It is odd while a writer is updating x,y,theta
+	 * and even otherwise, so a reader that sees the same even value before and after copying
+	 * the position knows the copy is consistent.*/
+	private volatile int seq;
+	
+	/**time (in ms) at which the position values were last written */
+	private volatile long stamp;
+	
 	/**Position values used by odometer:
 	 * x: the x-coordinate of the odometery center
 	 * y: the y-coordinate of the odometery center
 	 * theta : angle of the odometery center with respect to +y axis and increasing clockwise.
 	 */
-	private double x, y, theta;
+	private volatile double x, y, theta;
 	
 	//Difference variables used to hold error calculation values.
 	private double [] oldDH, dDH;
 	
+	/**Pose history ring buffer, one (timestamp, x, y, theta) sample per odometer update.
+	 * Written only by timedOut() and shifted by setPosition(), both under the lock.*/
+	private long [] histTime;
+	private double [] histX, histY, histTheta;
+	
+	/**total number of samples ever written to the pose history */
+	private int histCount;
+	
 	
 	/**
 	 * default Constructor. 
@@ -56,11 +108,16 @@ public class Odometer implements TimerListener {
 		this.robot = robot;
 		this.nav = new Navigation(this);
 		odometerTimer = new Timer(period, this);
+		this.period = period;
 		x = 0.0;
 		y = 0.0;
 		theta = 0.0;
 		oldDH = new double [2];
 		dDH = new double [2];
+		histTime = new long [HISTORY_SIZE];
+		histX = new double [HISTORY_SIZE];
+		histY = new double [HISTORY_SIZE];
+		histTheta = new double [HISTORY_SIZE];
 		lock = new Object();
 		
 		// start the odometer immediately, if necessary
@@ -105,24 +162,91 @@ public class Odometer implements TimerListener {
 	 * Called when the odometer timer is over. updates the odometer.
 	 * 
 	 * Calculates the difference in each call, using the robot motor tachometers. 
-	 * updates x,y,theta using these differences.
+	 * updates x,y,theta using these differences according to the integration mode, records the
+	 * new pose in the pose history and, if enabled, adapts the timer period to the wheel speeds.
 	 */
 	public void timedOut() {
 		robot.getDisplacementAndHeading(dDH);
+		SampleClock clock = this.clock;
+		long now = clock != null ? clock.getFrameTime() : SampleClock.now();
 		dDH[0] -= oldDH[0];
 		dDH[1] -= oldDH[1];
 		
+		double heading, distance = dDH[0];
+		
 		// update the position in a critical region
 		synchronized (lock) {
-			theta -= dDH[1];
-			theta = fixDegAngle(theta);
+			seq++;
+			
+			if (integrationMode == IntegrationMode.EULER) {
+				theta -= dDH[1];
+				theta = fixDegAngle(theta);
+				heading = theta;
+			} else {
+				heading = theta - dDH[1] / 2.0;
+				theta = fixDegAngle(theta - dDH[1]);
+				
+				// the chord of an arc is shorter than the arc itself by sin(a/2)/(a/2)
+				double halfAngle = Math.toRadians(dDH[1] / 2.0);
+				if (integrationMode == IntegrationMode.EXACT_ARC && Math.abs(halfAngle) > 1e-6)
+					distance *= FastTrig.sin(dDH[1] / 2.0) / halfAngle;
+			}
+			
+			x -= distance * FastTrig.sin(heading);
+			y -= distance * FastTrig.cos(heading);
+			stamp = now;
 			
-			x -= dDH[0] * Math.sin(Math.toRadians(theta));
-			y -= dDH[0] * Math.cos(Math.toRadians(theta));
+			int i = histCount % HISTORY_SIZE;
+			histTime[i] = now;
+			histX[i] = x;
+			histY[i] = y;
+			histTheta[i] = theta;
+			histCount++;
+			seq++;
 		}
 		
 		oldDH[0] += dDH[0];
 		oldDH[1] += dDH[1];
+		
+		PoseEstimator estimator = this.estimator;
+		if (estimator != null)
+			estimator.predict(distance, heading, dDH[1]);
+		
+		if (maxPeriod > 0)
+			adaptPeriod(now);
+	}
+	
+	/**
+	 * helper method that picks the timer period for the next tick from the wheel speeds seen in this one.
+	 * 
+	 * The period is the longest one (within [minPeriod, maxPeriod]) that keeps the heading change
+	 * below MAX_HEADING_STEP and the displacement below MAX_DISPLACEMENT_STEP, rounded down to 5 ms
+	 * so small speed changes don't reprogram the timer.
+	 * @param now time of the current tick.
+	 */
+	private void adaptPeriod(long now) {
+		long dt = now - lastTick;
+		lastTick = now;
+		if (dt <= 0)
+			return;
+		
+		double headingRate = Math.abs(dDH[1]) / dt;
+		double speed = Math.abs(dDH[0]) / dt;
+		int next = maxPeriod;
+		
+		if (headingRate * next > MAX_HEADING_STEP)
+			next = (int) (MAX_HEADING_STEP / headingRate);
+		if (speed * next > MAX_DISPLACEMENT_STEP)
+			next = (int) (MAX_DISPLACEMENT_STEP / speed);
+		
+		next -= next % 5;
+		if (next < minPeriod)
+			next = minPeriod;
+		
+		if (next != period) {
+			period = next;
+			odometerTimer.setDelay(next);
+		}
 	}
 	
 	// accessors
@@ -133,11 +257,90 @@ public class Odometer implements TimerListener {
 	 * @param pos the position array containing the x,y,theta values of the odometer.
 	 */
 	public void getPosition(double [] pos) {
-		synchronized (lock) {
+		int start;
+		do {
+			start = seq;
 			pos[0] = x;
 			pos[1] = y;
 			pos[2] = theta;
-		}
+		} while ((start & 1) != 0 || start != seq);
+	}
+	
+	/**
+	 * Position array getter method that also reports which update the position came from.
+	 * 
+	 * Like getPosition(double[]) this never blocks the odometer timer. The stamp array receives
+	 * the sequence number of the snapshot (increases by one on every update of the position) and
+	 * the time in ms at which that update was made.
+	 * 
+	 * @param pos the position array containing the x,y,theta values of the odometer.
+	 * @param stamp array receiving the sequence number (index 0) and timestamp (index 1) of the snapshot.
+	 */
+	public void getPosition(double [] pos, long [] stamp) {
+		int start;
+		do {
+			start = seq;
+			pos[0] = x;
+			pos[1] = y;
+			pos[2] = theta;
+			stamp[1] = this.stamp;
+		} while ((start & 1) != 0 || start != seq);
+		stamp[0] = start >>> 1;
+	}
+	
+	/**
+	 * Looks up the pose the robot had at a given time in the pose history.
+	 * 
+	 * The pose is linearly interpolated between the two recorded samples around timeMillis, so
+	 * a sensor reading can be matched with the pose at the moment it was sampled instead of the
+	 * moment it was processed. Times older than the history are clamped to the oldest sample and
+	 * times newer than the last update give the current position. Does not allocate or block the
+	 * odometer timer.
+	 * 
+	 * @param timeMillis the time (as given by SampleClock.now()) to look up.
+	 * @param out the position array receiving the x,y,theta values at that time.
+	 * @return true if timeMillis is covered by the history, false if the result was clamped.
+	 */
+	public boolean getPoseAt(long timeMillis, double [] out) {
+		int start;
+		boolean covered;
+		do {
+			start = seq;
+			int count = histCount;
+			int n = count < HISTORY_SIZE ? count : HISTORY_SIZE;
+			int first = count - n;
+			
+			if (n == 0 || timeMillis >= histTime[(count - 1) % HISTORY_SIZE]) {
+				// nothing older to interpolate with, use the latest position
+				out[0] = x;
+				out[1] = y;
+				out[2] = theta;
+				covered = n > 0 && timeMillis == histTime[(count - 1) % HISTORY_SIZE];
+			} else if (timeMillis <= histTime[first % HISTORY_SIZE]) {
+				int i = first % HISTORY_SIZE;
+				out[0] = histX[i];
+				out[1] = histY[i];
+				out[2] = histTheta[i];
+				covered = timeMillis == histTime[i];
+			} else {
+				// binary search for the last sample taken at or before timeMillis
+				int lo = first, hi = count - 1;
+				while (hi - lo > 1) {
+					int mid = (lo + hi) >>> 1;
+					if (histTime[mid % HISTORY_SIZE] <= timeMillis)
+						lo = mid;
+					else
+						hi = mid;
+				}
+				int a = lo % HISTORY_SIZE, b = hi % HISTORY_SIZE;
+				double f = (double) (timeMillis - histTime[a]) / (histTime[b] - histTime[a]);
+				out[0] = histX[a] + (histX[b] - histX[a]) * f;
+				out[1] = histY[a] + (histY[b] - histY[a]) * f;
+				out[2] = fixDegAngle(histTheta[a] + minimumAngleFromTo(histTheta[a], histTheta[b]) * f);
+				covered = true;
+			}
+		} while ((start & 1) != 0 || start != seq);
+		return covered;
 	}
 	
 	
@@ -151,6 +354,15 @@ public class Odometer implements TimerListener {
 	}
 	
 	
+	/**
+	 * pose estimator accessor.
+	 * 
+	 * @return the estimator fusing the observations into this odometer, null if there is none.
+	 */
+	public PoseEstimator getPoseEstimator() {
+		return estimator;
+	}
+	
 	/**
 	 * navigation class accessor. 
 	 * 
@@ -163,18 +375,170 @@ public class Odometer implements TimerListener {
 	// mutators
 	/**
 	 * mutator that sets the position of the odometer (x,y, and theta) 
+	 * 
+	 * The pose history is shifted by the same amount as the updated values, so poses looked up
+	 * with getPoseAt() stay consistent with the corrected position.
 	 * @param pos 		the position array (x,y,theta in that order) 
 	 * @param update	boolean array that masks the update of the pos array. If an index has a true value
 	 * 					in the boolean array, that index in the pos array will be updated.
 	 */
 	public void setPosition(double [] pos, boolean [] update) {
 		synchronized (lock) {
+			seq++;
+			double dx = update[0] ? pos[0] - x : 0.0;
+			double dy = update[1] ? pos[1] - y : 0.0;
+			double dTheta = update[2] ? pos[2] - theta : 0.0;
+			
 			if (update[0]) x = pos[0];
 			if (update[1]) y = pos[1];
 			if (update[2]) theta = pos[2];
+			stamp = SampleClock.now();
+			shiftHistory(dx, dy, dTheta);
+			seq++;
+		}
+		positionSet(update);
+	}
+	
+	/**
+	 * mutator that sets x alone. Does not allocate.
+	 * @param x the new x-coordinate.
+	 */
+	public void setX(double x) {
+		synchronized (lock) {
+			seq++;
+			double dx = x - this.x;
+			this.x = x;
+			stamp = SampleClock.now();
+			shiftHistory(dx, 0.0, 0.0);
+			seq++;
+		}
+		positionSet(X_ONLY);
+	}
+	
+	/**
+	 * mutator that sets y alone. Does not allocate.
+	 * @param y the new y-coordinate.
+	 */
+	public void setY(double y) {
+		synchronized (lock) {
+			seq++;
+			double dy = y - this.y;
+			this.y = y;
+			stamp = SampleClock.now();
+			shiftHistory(0.0, dy, 0.0);
+			seq++;
+		}
+		positionSet(Y_ONLY);
+	}
+	
+	/**
+	 * mutator that sets theta alone. Does not allocate.
+	 * @param theta the new heading.
+	 */
+	public void setTheta(double theta) {
+		synchronized (lock) {
+			seq++;
+			double dTheta = theta - this.theta;
+			this.theta = theta;
+			stamp = SampleClock.now();
+			shiftHistory(0.0, 0.0, dTheta);
+			seq++;
+		}
+		positionSet(THETA_ONLY);
+	}
+	
+	/**
+	 * helper method that tells the pose estimator, if any, which values were overwritten.
+	 * @param update the mask of the overwritten values.
+	 */
+	private void positionSet(boolean [] update) {
+		PoseEstimator estimator = this.estimator;
+		if (estimator != null)
+			estimator.positionSet(update);
+	}
+	
+	/**
+	 * mutator that adds a correction to the position, as one update.
+	 * 
+	 * Unlike setPosition() the correction is relative, so the odometry integrated between reading
+	 * the position and correcting it is kept. The pose history is shifted by the same amount.
+	 * @param dx correction of x.
+	 * @param dy correction of y.
+	 * @param dTheta correction of theta.
+	 */
+	public void applyCorrection(double dx, double dy, double dTheta) {
+		synchronized (lock) {
+			seq++;
+			x += dx;
+			y += dy;
+			theta = fixDegAngle(theta + dTheta);
+			stamp = SampleClock.now();
+			shiftHistory(dx, dy, dTheta);
+			seq++;
+		}
+	}
+	
+	/**
+	 * helper method that shifts the pose history by a correction. Called under the lock.
+	 * @param dx correction of x.
+	 * @param dy correction of y.
+	 * @param dTheta correction of theta.
+	 */
+	private void shiftHistory(double dx, double dy, double dTheta) {
+		int n = histCount < HISTORY_SIZE ? histCount : HISTORY_SIZE;
+		for (int i = 0; i < n; i++) {
+			histX[i] += dx;
+			histY[i] += dy;
+			if (dTheta != 0.0)
+				histTheta[i] = fixDegAngle(histTheta[i] + dTheta);
 		}
 	}
 	
+	/**
+	 * stamps the ticks with the frames of a clock. The clock then has to call timedOut() on every
+	 * frame, before the sensors whose samples are matched with poses, and the odometer runs at the
+	 * period of the clock instead of its own.
+	 * @param clock the clock, null to read the time on every tick.
+	 */
+	public void setSampleClock(SampleClock clock) {
+		this.clock = clock;
+	}
+	
+	/**
+	 * registers the estimator fusing observations into this odometer. It is told about every tick
+	 * and every setPosition().
+	 * @param estimator the estimator, null to stop fusing.
+	 */
+	public void setPoseEstimator(PoseEstimator estimator) {
+		this.estimator = estimator;
+	}
+	
+	
+	/**
+	 * selects how the displacement of each tick is integrated. 
+	 * @param mode the integration mode to use from the next tick on.
+	 */
+	public void setIntegrationMode(IntegrationMode mode) {
+		this.integrationMode = mode;
+	}
+	
+	/**
+	 * makes the odometer period adaptive. 
+	 * 
+	 * The timer runs at maxPeriod while the robot is idle and shortens down to minPeriod while the
+	 * wheels turn quickly. Passing a maxPeriod of 0 goes back to a fixed period of minPeriod.
+	 * Only applies to the odometer's own timer, not when it is run by a PeriodicExecutor.
+	 * @param minPeriod shortest period (fastest tick rate) to use, in ms.
+	 * @param maxPeriod longest period (slowest tick rate) to use, in ms. 0 disables adaptation.
+	 */
+	public void setAdaptivePeriod(int minPeriod, int maxPeriod) {
+		this.minPeriod = minPeriod;
+		this.maxPeriod = maxPeriod;
+		if (maxPeriod == 0) {
+			period = minPeriod;
+			odometerTimer.setDelay(minPeriod);
+		}
+	}
 	
 	// static 'helper' methods
 	/**
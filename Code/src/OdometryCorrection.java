@@ -1,14 +1,13 @@
 import lejos.nxt.ColorSensor;
-import lejos.nxt.LCD;
 import lejos.nxt.SensorPort;
-import lejos.nxt.Sound;
 
 /**
  * Class that corrects the odometer using the grid.
  * 
  * This thread makes use of the lightSensor to correct the position of the odometer.
- * It makes corrections each time a line is detected and overrites the values of the odometer
- * with the corrected values.
+ * It sleeps until the lightListener reports a line, then corrects the position the odometer
+ * had when the line was sampled and overrites the values of the odometer with the corrected values.
+ * When the odometer has a PoseEstimator, the line is given to it as an observation instead.
  * 
  * @author Bobak Hamed-Baghi, Victor Repkow.
  * @version V1.1 Revision 2
@@ -16,24 +15,25 @@ import lejos.nxt.Sound;
  */
 public class OdometryCorrection extends Thread {
 	
-	/**odometeryCorrection period value, controlls the frequency of which any potential error
-	 * in the odometer is corrected by this class.
-	 */
-	private static final long CORRECTION_PERIOD = 50;
 	private Odometer odometer;
 	
 	//Variables for ColorSensor
-	private int[] Readings = new int[10];
 	int TestRead;
 	int mean =0;
 	private LightListener lightListener;
 	
+	/**queue of the line crossings reported by the lightListener */
+	private LineEventQueue lines = new LineEventQueue(4);
+	
+	/**position array reused by every correction */
+	private double [] pos = new double [3];
+	
 	/**the constant which is considered to be the effective length of each tile on the floor */
 	private final double CORR_CONSTANT = 30;
 	
 	/**Sensor Distance relative to origin
 	 */
-	public static double Dist = 11.8;
+	private static final double Dist = TwoWheeledRobot.LIGHT_SENSOR_DISTANCE;
 	
 
 	/**
@@ -44,52 +44,52 @@ public class OdometryCorrection extends Thread {
 	public OdometryCorrection(Odometer odometer, LightListener lightListener) {
 		this.odometer = odometer;
 		this.lightListener = lightListener;
-		
-	}
-	
-	/** helper method that performs a leftShift on the elements of an array.
-	 * 
-	 * @param myArray array to be leftshifted.
-	 */
-	public void Shift(int[] myArray){
-		for(int k=0; k < myArray.length-1; k++)
-		{
-			myArray[k] = myArray[k+1];
-		}
+		lightListener.addLineListener(lines);
 	}
 	
 	/**
-	 * Helper method that calculates the mean of the elements inside an array.
-	 * @param myArray the array that contains the dataset.
-	 * @return the mean of the dataset.
+	 * Helper method that calculates the mean of the non-zero elements inside an array.
+	 * @param myArray the array that contains the dataset, zeros being missing readings.
+	 * @return the mean of the dataset, 0 if it holds no readings.
 	 */
 	public int calcMean(int[] myArray){
 		int sum = 0;
+		int readings = 0;
 		for(int i=0; i<myArray.length; i++)
 		{
 			if(myArray[i] != 0)
+			{
 				sum+= myArray[i];
+				readings++;
+			}
 		}
 		
-		return sum/myArray.length;
+		return readings == 0 ? 0 : sum/readings;
 	}
 	
 	/**
 	 * function that corrects the position of the odometer based on the readings of 
 	 * the lightSensor.
 	 * 
-	 * called each time a line is detected.
+	 * called each time a line is detected. The error is computed from the position the
+	 * odometer had at the time the line was sampled and added to the current position.
+	 * @param time the time the line was sampled at.
 	 */
-	void DoCorrection(){
+	void DoCorrection(long time){
+		
+		PoseEstimator estimator = odometer.getPoseEstimator();
+		if (estimator != null) {
+			estimator.observeGridLine(time, Dist, CORR_CONSTANT);
+			return;
+		}
 		
 		double xError, yError;
 		double lsX, lsY;
-		double pos[] = new double[3];
-		odometer.getPosition(pos);
+		odometer.getPoseAt(time, pos);
 		
 		//caculate perceived (wrong) position of the lightsensor on the grid.
-		lsX = Math.sin(pos[2]*Math.PI/180)*Dist + pos[0]; 
-		lsY = Math.cos(pos[2]*Math.PI/180)*Dist + pos[1];
+		lsX = FastTrig.sin(pos[2])*Dist + pos[0]; 
+		lsY = FastTrig.cos(pos[2])*Dist + pos[1];
 		
 		//calculate the error between where the lightsensor is and where it should be
 		 xError =  CORR_CONSTANT - ((lsX %CORR_CONSTANT)) ;
@@ -99,70 +99,35 @@ public class OdometryCorrection extends Thread {
 		 if(yError > CORR_CONSTANT/2)
 			 yError = ((lsY %CORR_CONSTANT));
 		
-		//calculate the true position of the odometer based on the offset error of the light sensor.
-		double posY = pos[1] + yError;
-		double posX = pos[0] + xError;
-		pos[1] = posY;
-		pos[0] = posX;
-		
-		//update the position of the odometer
+		//update the position of the odometer. The error is added under the odometer lock, so the
+		//motion of the ticks since the line was sampled is kept.
 		if( Math.abs(xError) <= Math.abs(yError))
 		{
 			
-			odometer.setPosition(pos, new boolean[] {false, true, false});
-			LCD.drawString("Up", 0, 6);
+			odometer.applyCorrection(0, yError, 0);
+			LCDInfo.setStatus("Up");
 
 		}
 		
 		else{
-			odometer.setPosition(pos, new boolean[] {true, false, false});
-			LCD.drawString("Right", 0, 6);
+			odometer.applyCorrection(xError, 0, 0);
+			LCDInfo.setStatus("Right");
 		}
 
 	}
 
 	/**
-	 * run method required for thread. starts a loop constantly checking for lines.
+	 * run method required for thread. waits for the lines reported by the lightListener.
 	 * when not interrupted, will perform corrections by calling DoCorrection()
 	 */
 	public void run() {
 		
 		while(!Thread.interrupted())
 	    {
-			long correctionStart, correctionEnd;
-			while (true) {
-				correctionStart = System.currentTimeMillis();
-				
-				
-				double [] pos = new double[3];
-				
-				if(getGridLine())
-				{
-					Sound.beep();
-					DoCorrection();
-				}
-
-				// this ensure the odometry correction occurs only once every period
-				correctionEnd = System.currentTimeMillis();
-						try {
-							Thread.sleep(CORRECTION_PERIOD);
-					} catch (InterruptedException e) {
-						// there is nothing to be done here because it is not
-						// expected that the odometry correction will be
-						// interrupted by another thread
-					}
-				}
+			if(lines.take(0) && lines.getPolarity() > 0)
+			{
+				DoCorrection(lines.getTime());
 			}
 	    }
-		
-		
-
-	/** function that detects wether a line has been seen or not. 
-	 * this calls the diffGetGridLine() method from the lightListener. 
-	 * 
-	 * @return true if line has been detected, false otherwise.
-	 */
-	private boolean getGridLine(){
-		return lightListener.diffGetGridLine();
 	}
-}
\ No newline at end of file
+}
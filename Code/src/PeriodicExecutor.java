@@ -0,0 +1,164 @@
+import lejos.util.TimerListener;
+
+/**
+ * Single thread that runs the periodic work of the robot.
+ *
+ * Instead of each component running its own Timer or sleeping thread, the components register
+ * their TimerListener with a period and a phase offset. Releases are at a fixed rate
+ * (phase + k*period after the executor starts), so they do not drift, and the phases keep tasks
+ * with the same period from landing in the same tick. When several tasks are due at once they run
+ * rate-monotonic: the shortest period first.
+ *
+ * A task still running when its next release comes overruns: the missed releases are counted and
+ * dropped rather than run back to back. The execution time of every run is recorded.
+ *
+ * Registered components: Odometer and LCDInfo (created without starting their own timer) and
+ * LightListener, directly or through a SampleClock.
+ *
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ *
+ */
+public class PeriodicExecutor extends Thread {
+
+	/**registered tasks, in registration order */
+	private TimerListener [] listeners;
+	private int [] period;
+	private int [] phase;
+	
+	/**ids of the tasks sorted by period (rate-monotonic order), built when the executor starts */
+	private int [] order;
+
+	/**number of registered tasks */
+	private int size;
+
+	/**next release of each task, in ms */
+	private long [] release;
+
+	/**per task statistics: runs, overruns (dropped releases), total and longest execution time (ms) */
+	private int [] runs, overruns;
+	private long [] totalTime, maxTime;
+
+	/**
+	 * default constructor. The executor runs at the highest priority, as a daemon.
+	 * @param capacity most tasks that can be registered.
+	 */
+	public PeriodicExecutor(int capacity) {
+		listeners = new TimerListener [capacity];
+		order = new int [capacity];
+		period = new int [capacity];
+		phase = new int [capacity];
+		release = new long [capacity];
+		runs = new int [capacity];
+		overruns = new int [capacity];
+		totalTime = new long [capacity];
+		maxTime = new long [capacity];
+		setDaemon(true);
+		setPriority(Thread.MAX_PRIORITY);
+	}
+
+	/**
+	 * registers a task. Has to be called before the executor is started.
+	 * @param listener the task, whose timedOut() is called on every release.
+	 * @param period the period of the task, in ms.
+	 * @param phase the offset of its first release from the start of the executor, in ms.
+	 * @return the id of the task, for the statistics.
+	 */
+	public synchronized int register(TimerListener listener, int period, int phase) {
+		listeners[size] = listener;
+		this.period[size] = period;
+		this.phase[size] = phase;
+		return size++;
+	}
+
+	/**
+	 * run method of the executor thread. Sleeps until the next release and runs the tasks due.
+	 */
+	public void run() {
+		// sort by period, ties in registration order
+		for (int i = 0; i < size; i++) {
+			int j = i;
+			while (j > 0 && period[order[j - 1]] > period[i]) {
+				order[j] = order[j - 1];
+				j--;
+			}
+			order[j] = i;
+		}
+		
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < size; i++)
+			release[i] = start + phase[i];
+
+		while (!isInterrupted()) {
+			long next = Long.MAX_VALUE;
+			for (int i = 0; i < size; i++)
+				if (release[i] < next)
+					next = release[i];
+
+			long delay = next - System.currentTimeMillis();
+			if (delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+
+			// the due tasks run rate-monotonic
+			for (int k = 0; k < size; k++) {
+				int i = order[k];
+				long now = System.currentTimeMillis();
+				if (release[i] > now)
+					continue;
+
+				listeners[i].timedOut();
+				long end = System.currentTimeMillis();
+				long time = end - now;
+				runs[i]++;
+				totalTime[i] += time;
+				if (time > maxTime[i])
+					maxTime[i] = time;
+
+				release[i] += period[i];
+				if (release[i] < end) {
+					// drop the releases the task ran into, keeping the phase
+					long missed = (end - release[i] + period[i] - 1) / period[i];
+					overruns[i] += missed;
+					release[i] += missed * period[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param id the id returned by register().
+	 * @return the number of runs of the task.
+	 */
+	public int getRuns(int id) {
+		return runs[id];
+	}
+
+	/**
+	 * @param id the id returned by register().
+	 * @return the number of releases of the task dropped because it was still running.
+	 */
+	public int getOverruns(int id) {
+		return overruns[id];
+	}
+
+	/**
+	 * @param id the id returned by register().
+	 * @return the mean execution time of the task, in ms.
+	 */
+	public double getMeanTime(int id) {
+		return runs[id] == 0 ? 0.0 : (double) totalTime[id] / runs[id];
+	}
+
+	/**
+	 * @param id the id returned by register().
+	 * @return the longest execution time of the task, in ms.
+	 */
+	public long getMaxTime(int id) {
+		return maxTime[id];
+	}
+}
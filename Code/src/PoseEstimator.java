@@ -0,0 +1,284 @@
+/**
+ * Pose estimator that fuses the odometry with grid line and ultrasonic wall observations.
+ *
+ * The Odometer still integrates the wheel motion and holds the estimated pose; this class keeps
+ * the covariance of that estimate (x and y in cm, theta in degrees) and grows it on every
+ * odometer tick with the distance and rotation travelled. An observation is weighted against the
+ * current covariance by an extended Kalman filter update, and the resulting correction is added
+ * to the odometer with Odometer.applyCorrection() instead of overwriting the position. Small
+ * corrections thus stay small, and an observation far off the prediction is rejected as a wrong
+ * line or a bad reading instead of making the pose jump.
+ *
+ * Registered with Odometer.setPoseEstimator(), the odometer feeds the ticks in and resets the
+ * covariance of the values overwritten by setPosition().
+ *
+ * @author Bobak Hamed-Baghi, Victor Repkow.
+ * @version V1.1 Revision 2
+ *
+ */
+public class PoseEstimator implements PositionProvider {
+
+	/**position variance (cm^2) added per cm travelled, along the direction of travel */
+	public static final double DISTANCE_NOISE = 0.05;
+
+	/**heading variance (deg^2) added per degree turned and per cm travelled */
+	public static final double TURN_NOISE = 0.05, DRIFT_NOISE = 0.01;
+
+	/**variance of a grid line observation (cm^2) */
+	public static final double LINE_VARIANCE = 0.25;
+
+	/**variance of an ultrasonic wall range (cm^2) */
+	public static final double RANGE_VARIANCE = 1.0;
+
+	/**variance given to values set with setPosition(): x and y (cm^2), theta (deg^2) */
+	public static final double SET_POSITION_VARIANCE = 1.0, SET_HEADING_VARIANCE = 4.0;
+
+	/**observations further than this many standard deviations from the prediction are rejected */
+	public static final double GATE = 3.0;
+
+	/**degrees to radians, for the heading terms of the jacobians */
+	private static final double RAD = Math.PI / 180.0;
+
+	/**the odometer holding the estimated pose */
+	private Odometer odo;
+
+	/**covariance of the estimate, symmetric so only the upper triangle is kept */
+	private double pxx, pxy, pxt, pyy, pyt, ptt;
+
+	/**scratch pose used by the observations */
+	private double [] pose = new double [3];
+
+	/**observations applied and rejected so far */
+	private int accepted, rejected;
+
+	/**
+	 * default constructor. Registers the estimator with the odometer.
+	 * @param odo the odometer whose pose is estimated.
+	 * @param positionVariance initial variance of x and y (cm^2).
+	 * @param headingVariance initial variance of theta (deg^2).
+	 */
+	public PoseEstimator(Odometer odo, double positionVariance, double headingVariance) {
+		this.odo = odo;
+		reset(positionVariance, headingVariance);
+		odo.setPoseEstimator(this);
+	}
+
+	/**
+	 * sets the covariance to a diagonal one.
+	 * @param positionVariance variance of x and y (cm^2).
+	 * @param headingVariance variance of theta (deg^2).
+	 */
+	public synchronized void reset(double positionVariance, double headingVariance) {
+		pxx = pyy = positionVariance;
+		ptt = headingVariance;
+		pxy = pxt = pyt = 0.0;
+	}
+
+	/**
+	 * propagates the covariance through one odometer tick. Called by the odometer timer.
+	 * @param distance the distance travelled in the tick (cm).
+	 * @param heading the heading the displacement was applied along (degrees).
+	 * @param turn the heading change of the tick (degrees).
+	 */
+	public synchronized void predict(double distance, double heading, double turn) {
+		if (distance == 0.0 && turn == 0.0)
+			return;
+
+		// x -= d*sin(h), y -= d*cos(h): derivatives with respect to the heading
+		double s = FastTrig.sin(heading), c = FastTrig.cos(heading);
+		double fx = -distance * c * RAD, fy = distance * s * RAD;
+
+		pxx += 2.0 * fx * pxt + fx * fx * ptt;
+		pxy += fx * pyt + fy * pxt + fx * fy * ptt;
+		pyy += 2.0 * fy * pyt + fy * fy * ptt;
+		pxt += fx * ptt;
+		pyt += fy * ptt;
+
+		double q = DISTANCE_NOISE * Math.abs(distance);
+		pxx += q * s * s;
+		pxy += q * s * c;
+		pyy += q * c * c;
+		ptt += TURN_NOISE * Math.abs(turn) + DRIFT_NOISE * Math.abs(distance);
+	}
+
+	/**
+	 * called by the odometer when setPosition() overwrites values: they are known again, and no
+	 * longer correlated with the others.
+	 * @param update the mask passed to setPosition().
+	 */
+	public synchronized void positionSet(boolean [] update) {
+		if (update[0]) {
+			pxx = SET_POSITION_VARIANCE;
+			pxy = pxt = 0.0;
+		}
+		if (update[1]) {
+			pyy = SET_POSITION_VARIANCE;
+			pxy = pyt = 0.0;
+		}
+		if (update[2]) {
+			ptt = SET_HEADING_VARIANCE;
+			pxt = pyt = 0.0;
+		}
+	}
+
+	/**
+	 * observes a grid line crossed by the light sensor.
+	 *
+	 * The sensor sits sensorDistance ahead of the odometry center, at (x + d*sin(theta), y + d*cos(theta)).
+	 * The line the crossing belongs to is the nearest one to where the pose at the time of the
+	 * crossing puts the sensor, on whichever axis that is closest.
+	 * @param time the time the line was sampled at.
+	 * @param sensorDistance distance of the sensor ahead of the odometry center (cm).
+	 * @param spacing distance between grid lines (cm).
+	 * @return true if the observation was applied, false if it was rejected.
+	 */
+	public boolean observeGridLine(long time, double sensorDistance, double spacing) {
+		synchronized (this) {
+			odo.getPoseAt(time, pose);
+			double s = FastTrig.sin(pose[2]), c = FastTrig.cos(pose[2]);
+			double sx = pose[0] + sensorDistance * s;
+			double sy = pose[1] + sensorDistance * c;
+			double xError = Math.round(sx / spacing) * spacing - sx;
+			double yError = Math.round(sy / spacing) * spacing - sy;
+
+			if (Math.abs(xError) <= Math.abs(yError))
+				return update(xError, 1.0, 0.0, sensorDistance * c * RAD, LINE_VARIANCE);
+			return update(yError, 0.0, 1.0, -sensorDistance * s * RAD, LINE_VARIANCE);
+		}
+	}
+
+	/**
+	 * observes the ultrasonic range to a wall parallel to one of the axes, seen along the heading.
+	 * @param range the measured distance (cm).
+	 * @param wall position of the wall on its axis (cm).
+	 * @param vertical true for a wall of constant x, false for a wall of constant y.
+	 * @return true if the observation was applied, false if it was rejected or the wall is not in front of the robot.
+	 */
+	public boolean observeWallRange(double range, double wall, boolean vertical) {
+		synchronized (this) {
+			odo.getPosition(pose);
+			double s = FastTrig.sin(pose[2]), c = FastTrig.cos(pose[2]);
+
+			// the range along the heading to x = wall is (wall - x)/sin(theta), to y = wall is (wall - y)/cos(theta)
+			if (vertical) {
+				if (Math.abs(s) < 0.5)
+					return false;
+				double predicted = (wall - pose[0]) / s;
+				return update(range - predicted, -1.0 / s, 0.0, -predicted * c / s * RAD, RANGE_VARIANCE);
+			}
+			if (Math.abs(c) < 0.5)
+				return false;
+			double predicted = (wall - pose[1]) / c;
+			return update(range - predicted, 0.0, -1.0 / c, predicted * s / c * RAD, RANGE_VARIANCE);
+		}
+	}
+
+	/**
+	 * helper method that applies a scalar observation.
+	 * @param innovation measured minus predicted value.
+	 * @param hx derivative of the observation with respect to x.
+	 * @param hy derivative of the observation with respect to y.
+	 * @param ht derivative of the observation with respect to theta (per degree).
+	 * @param variance variance of the measurement.
+	 * @return true if the observation was applied, false if it failed the gate.
+	 */
+	private boolean update(double innovation, double hx, double hy, double ht, double variance) {
+		double ax = pxx * hx + pxy * hy + pxt * ht;
+		double ay = pxy * hx + pyy * hy + pyt * ht;
+		double at = pxt * hx + pyt * hy + ptt * ht;
+		double s = hx * ax + hy * ay + ht * at + variance;
+
+		if (innovation * innovation > GATE * GATE * s) {
+			rejected++;
+			return false;
+		}
+
+		double k = innovation / s;
+		odo.applyCorrection(ax * k, ay * k, at * k);
+
+		pxx -= ax * ax / s;
+		pxy -= ax * ay / s;
+		pxt -= ax * at / s;
+		pyy -= ay * ay / s;
+		pyt -= ay * at / s;
+		ptt -= at * at / s;
+		accepted++;
+		return true;
+	}
+
+	/**
+	 * covariance getter method.
+	 * @param cov array receiving the variances of x, y and theta in order.
+	 */
+	public synchronized void getVariances(double [] cov) {
+		cov[0] = pxx;
+		cov[1] = pyy;
+		cov[2] = ptt;
+	}
+
+	/**
+	 * @return the number of observations applied so far.
+	 */
+	public int getAccepted() {
+		return accepted;
+	}
+
+	/**
+	 * @return the number of observations rejected by the gate so far.
+	 */
+	public int getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * Position array getter method. fills a position array with the fused x,y, and theta.
+	 *
+	 * @param pos the position array receiving the x,y,theta values.
+	 */
+	public void getPosition(double [] pos) {
+		odo.getPosition(pos);
+	}
+
+	/**
+	 * mutator that sets the position (x,y, and theta) of the odometer; the variances of the
+	 * updated values are reset.
+	 * @param pos 		the position array (x,y,theta in that order)
+	 * @param update	boolean array that masks the update of the pos array.
+	 */
+	public void setPosition(double [] pos, boolean [] update) {
+		odo.setPosition(pos, update);
+	}
+
+	/**
+	 * mutator that sets x of the odometer alone; its variance is reset.
+	 * @param x the new x-coordinate.
+	 */
+	public void setX(double x) {
+		odo.setX(x);
+	}
+	
+	/**
+	 * mutator that sets y of the odometer alone; its variance is reset.
+	 * @param y the new y-coordinate.
+	 */
+	public void setY(double y) {
+		odo.setY(y);
+	}
+	
+	/**
+	 * mutator that sets theta of the odometer alone; its variance is reset.
+	 * @param theta the new heading.
+	 */
+	public void setTheta(double theta) {
+		odo.setTheta(theta);
+	}
+	
+	/**
+	 * accessor method that returns the twoWheeledRobot whose motion is tracked.
+	 *
+	 * @return the twoWheeledRobot used by the odometer.
+	 */
+	public TwoWheeledRobot getTwoWheeledRobot() {
+		return odo.getTwoWheeledRobot();
+	}
+}
@@ -0,0 +1,53 @@
+/**
+ * Interface of the odometry engines.
+ * 
+ * Anything that keeps track of the (x,y) location and heading of the robot implements this, so
+ * the classes that only read or overwrite the position (Navigation, LCDInfo) can work with
+ * either the double based Odometer or the integer FixedPointOdometer.
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow.
+ * @version V1.1 Revision 2
+ *
+ */
+public interface PositionProvider {
+	
+	/**
+	 * Position array getter method. fills a position array with x,y, and theta in order.
+	 * 
+	 * @param pos the position array receiving the x,y,theta values.
+	 */
+	public void getPosition(double [] pos);
+	
+	/**
+	 * mutator that sets the position (x,y, and theta) 
+	 * @param pos 		the position array (x,y,theta in that order) 
+	 * @param update	boolean array that masks the update of the pos array. If an index has a true value
+	 * 					in the boolean array, that index in the pos array will be updated.
+	 */
+	public void setPosition(double [] pos, boolean [] update);
+	
+	/**
+	 * mutator that sets x alone, without a mask array.
+	 * @param x the new x-coordinate.
+	 */
+	public void setX(double x);
+	
+	/**
+	 * mutator that sets y alone, without a mask array.
+	 * @param y the new y-coordinate.
+	 */
+	public void setY(double y);
+	
+	/**
+	 * mutator that sets theta alone, without a mask array.
+	 * @param theta the new heading.
+	 */
+	public void setTheta(double theta);
+	
+	/**
+	 * accessor method that returns the twoWheeledRobot whose motion is tracked.
+	 * 
+	 * @return the twoWheeledRobot used by this engine.
+	 */
+	public TwoWheeledRobot getTwoWheeledRobot();
+}
@@ -0,0 +1,190 @@
+/**
+ * Median of the last readings of a sensor.
+ * 
+ * Keeps the readings of a sliding window in two heaps: a max-heap with the lower half and a
+ * min-heap with the upper half, so the median is at their tops. Each heap entry remembers where
+ * it sits, so the reading that leaves the window is replaced in place by the new one and only
+ * that entry has to be moved. Each reading costs O(log window) and nothing is allocated.
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ */
+public class RunningMedian implements SampleFilter {
+	
+	/** readings of the window, as a ring */
+	private double [] values;
+	
+	/** number of readings fed so far, capped at the window length */
+	private int size;
+	
+	/** ring slot of the next reading */
+	private int next;
+	
+	/** lower half (max-heap) and upper half (min-heap) of the window, as ring slots */
+	private int [] low, high;
+	private int lowSize, highSize;
+	
+	/** heap of each ring slot and its index in that heap */
+	private boolean [] inLow;
+	private int [] heapIndex;
+	
+	/**
+	 * default constructor.
+	 * @param window number of readings the median is taken over.
+	 */
+	public RunningMedian(int window) {
+		values = new double [window];
+		low = new int [window];
+		high = new int [window];
+		inLow = new boolean [window];
+		heapIndex = new int [window];
+	}
+	
+	/**
+	 * feeds the next reading, replacing the oldest one once the window is full.
+	 * @param sample the reading.
+	 * @return the median of the window.
+	 */
+	public double filter(double sample) {
+		int slot = next;
+		next = (next + 1) % values.length;
+		values[slot] = sample;
+		
+		if (size < values.length) {
+			size++;
+			if (lowSize == 0 || sample <= values[low[0]])
+				insert(true, slot);
+			else
+				insert(false, slot);
+			
+			// keep the lower half the same size as the upper half, or one larger
+			if (lowSize > highSize + 1)
+				insert(false, removeTop(true));
+			else if (highSize > lowSize)
+				insert(true, removeTop(false));
+		} else {
+			// the new reading takes the place of the oldest one in its heap
+			int i = heapIndex[slot];
+			if (inLow[slot])
+				i = siftUp(true, i);
+			else
+				i = siftUp(false, i);
+			siftDown(inLow[slot], i);
+		}
+		
+		// a reading moved across the median: exchange the tops
+		if (highSize > 0 && values[low[0]] > values[high[0]]) {
+			int a = low[0], b = high[0];
+			place(true, 0, b);
+			place(false, 0, a);
+			siftDown(true, 0);
+			siftDown(false, 0);
+		}
+		
+		return median();
+	}
+	
+	/**
+	 * @return the median of the window, 0 if no reading was fed yet.
+	 */
+	public double median() {
+		if (size == 0)
+			return 0.0;
+		if (lowSize > highSize)
+			return values[low[0]];
+		return (values[low[0]] + values[high[0]]) / 2.0;
+	}
+	
+	/**
+	 * @return the number of readings in the window.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * copies the readings of the window, in no particular order.
+	 * @param out array receiving the readings.
+	 * @return the number of readings copied.
+	 */
+	public int copyWindow(double [] out) {
+		for (int i = 0; i < size; i++)
+			out[i] = values[i];
+		return size;
+	}
+	
+	/**
+	 * forgets all readings fed so far.
+	 */
+	public void reset() {
+		size = next = lowSize = highSize = 0;
+	}
+	
+	/** helper method that orders two slots the way the given heap wants them (true if a goes above b). */
+	private boolean above(boolean isLow, int a, int b) {
+		return isLow ? values[a] > values[b] : values[a] < values[b];
+	}
+	
+	/** helper method that puts a slot at an index of a heap. */
+	private void place(boolean isLow, int i, int slot) {
+		if (isLow)
+			low[i] = slot;
+		else
+			high[i] = slot;
+		inLow[slot] = isLow;
+		heapIndex[slot] = i;
+	}
+	
+	/** helper method that adds a slot to a heap. */
+	private void insert(boolean isLow, int slot) {
+		int i = isLow ? lowSize++ : highSize++;
+		place(isLow, i, slot);
+		siftUp(isLow, i);
+	}
+	
+	/** helper method that removes and returns the top slot of a heap. */
+	private int removeTop(boolean isLow) {
+		int [] heap = isLow ? low : high;
+		int top = heap[0];
+		int last = isLow ? --lowSize : --highSize;
+		if (last > 0) {
+			place(isLow, 0, heap[last]);
+			siftDown(isLow, 0);
+		}
+		return top;
+	}
+	
+	/** helper method that moves an entry up its heap; returns its new index. */
+	private int siftUp(boolean isLow, int i) {
+		int [] heap = isLow ? low : high;
+		int slot = heap[i];
+		while (i > 0) {
+			int up = (i - 1) >> 1;
+			if (!above(isLow, slot, heap[up]))
+				break;
+			place(isLow, i, heap[up]);
+			i = up;
+		}
+		place(isLow, i, slot);
+		return i;
+	}
+	
+	/** helper method that moves an entry down its heap. */
+	private void siftDown(boolean isLow, int i) {
+		int [] heap = isLow ? low : high;
+		int n = isLow ? lowSize : highSize;
+		int slot = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= n)
+				break;
+			if (child + 1 < n && above(isLow, heap[child + 1], heap[child]))
+				child++;
+			if (!above(isLow, heap[child], slot))
+				break;
+			place(isLow, i, heap[child]);
+			i = child;
+		}
+		place(isLow, i, slot);
+	}
+}
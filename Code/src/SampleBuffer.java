@@ -0,0 +1,138 @@
+/**
+ * Ring buffer of timestamped sensor samples.
+ * 
+ * One thread (the sensor listener) pushes samples in O(1), any number of threads read them
+ * without locking. The sample count is volatile and only incremented after the sample is written,
+ * so a reader that sees a count also sees every sample before it. Readers that copy a window check
+ * afterwards that the producer did not wrap around onto it meanwhile, and copy it again if it did.
+ * int readings are stored as doubles, which represents them exactly.
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ *
+ */
+public class SampleBuffer {
+	
+	/** sample values and the times (ms) at which they were taken */
+	private double [] values;
+	private long [] times;
+	
+	/** number of samples the buffer holds */
+	private int capacity;
+	
+	/** total number of samples pushed so far */
+	private volatile int count;
+	
+	/**
+	 * default constructor. allocates the buffer.
+	 * @param capacity number of samples kept; should be comfortably larger than the windows read.
+	 */
+	public SampleBuffer(int capacity) {
+		this.capacity = capacity;
+		values = new double [capacity];
+		times = new long [capacity];
+	}
+	
+	/**
+	 * adds a sample, overwriting the oldest one when the buffer is full.
+	 * Must only be called from the producer thread.
+	 * @param value the sample value.
+	 * @param time the time (as given by SampleClock.now()) the sample was taken.
+	 */
+	public void push(double value, long time) {
+		int c = count;
+		int i = c % capacity;
+		values[i] = value;
+		times[i] = time;
+		count = c + 1;
+	}
+	
+	/**
+	 * @return the total number of samples pushed so far.
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return the number of samples the buffer holds.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * @return the newest sample, 0 if none was pushed yet.
+	 */
+	public double getLatest() {
+		int c = count;
+		return c == 0 ? 0.0 : values[(c - 1) % capacity];
+	}
+	
+	/**
+	 * @return the time of the newest sample, 0 if none was pushed yet.
+	 */
+	public long getLatestTime() {
+		int c = count;
+		return c == 0 ? 0L : times[(c - 1) % capacity];
+	}
+	
+	/**
+	 * reads one sample by its position in the stream of samples.
+	 * @param index the position of the sample, 0 for the first sample ever pushed. Only the last
+	 * 			capacity samples are still available.
+	 * @return the sample value.
+	 */
+	public double get(int index) {
+		return values[index % capacity];
+	}
+	
+	/**
+	 * feeds the samples pushed since a given count to a filter, in order. Samples that were
+	 * already overwritten are skipped.
+	 * @param filter the filter to feed.
+	 * @param fromCount the sample count up to which the filter was already fed.
+	 * @return the new sample count, to pass as fromCount on the next call.
+	 */
+	public int feed(SampleFilter filter, int fromCount) {
+		int c = count;
+		if (c - fromCount > capacity)
+			fromCount = c - capacity;
+		for (int i = fromCount; i < c; i++)
+			filter.filter(values[i % capacity]);
+		return c;
+	}
+	
+	/**
+	 * copies the newest samples, oldest first. Does not allocate.
+	 * @param out array receiving the samples; its first n entries are written.
+	 * @param n number of samples wanted, at most the capacity.
+	 * @return the number of samples copied, less than n if fewer were pushed so far.
+	 */
+	public int readWindow(double [] out, int n) {
+		return readWindow(out, null, n);
+	}
+	
+	/**
+	 * copies the newest samples and their timestamps, oldest first. Does not allocate.
+	 * @param out array receiving the samples; its first n entries are written.
+	 * @param outTimes array receiving the sample times, or null if they are not needed.
+	 * @param n number of samples wanted, at most the capacity.
+	 * @return the number of samples copied, less than n if fewer were pushed so far.
+	 */
+	public int readWindow(double [] out, long [] outTimes, int n) {
+		while (true) {
+			int c = count;
+			int k = c < n ? c : n;
+			for (int j = 0; j < k; j++) {
+				int i = (c - k + j) % capacity;
+				out[j] = values[i];
+				if (outTimes != null)
+					outTimes[j] = times[i];
+			}
+			// the producer overwrites sample s while writing sample s + capacity
+			if (count - capacity < c - k)
+				return k;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+import lejos.util.TimerListener;
+
+/**
+ * Shared clock of the sensor samples.
+ *
+ * now() is the monotonic time every sample is stamped with. As a TimerListener, the clock also
+ * runs the sampling of several components in one tick: each tick starts a new frame (a single
+ * timestamp) and then calls the registered components in order, which stamp their samples with
+ * the frame time instead of reading the time themselves. An Odometer registered before a
+ * LightListener thus records the pose of exactly the frame the light sample was taken in, and
+ * Odometer.getPoseAt() with the time of the sample returns that pose without interpolating
+ * between ticks.
+ *
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ *
+ */
+public class SampleClock implements TimerListener {
+
+	/**latest time returned by now(), so the clock never goes back */
+	private static long last;
+
+	/**components sampled on every tick, in order */
+	private TimerListener [] listeners;
+	private int size;
+
+	/**time of the current frame */
+	private volatile long frameTime;
+
+	/**
+	 * default constructor.
+	 * @param capacity most components that can be sampled in one tick.
+	 */
+	public SampleClock(int capacity) {
+		listeners = new TimerListener [capacity];
+		frameTime = now();
+	}
+
+	/**
+	 * @return the current time in ms (based on System.currentTimeMillis()), never smaller than a
+	 * 			time returned before.
+	 */
+	public static synchronized long now() {
+		long time = System.currentTimeMillis();
+		if (time < last)
+			time = last;
+		last = time;
+		return time;
+	}
+
+	/**
+	 * adds a component to sample on every tick, after the ones added before it.
+	 * @param listener the component.
+	 */
+	public void add(TimerListener listener) {
+		listeners[size++] = listener;
+	}
+
+	/**
+	 * starts a new frame and samples every component in it.
+	 */
+	public void timedOut() {
+		frameTime = now();
+		for (int i = 0; i < size; i++)
+			listeners[i].timedOut();
+	}
+
+	/**
+	 * @return the time of the current frame, in ms.
+	 */
+	public long getFrameTime() {
+		return frameTime;
+	}
+}
@@ -0,0 +1,24 @@
+/**
+ * Interface of the streaming filters applied to sensor readings.
+ * 
+ * A filter is fed one reading at a time, in order, and returns its filtered value. Implementations
+ * keep their state in preallocated arrays, so filtering does not allocate. They can be fed
+ * straight from a sensor's SampleBuffer with SampleBuffer.feed().
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ */
+public interface SampleFilter {
+	
+	/**
+	 * feeds the next reading to the filter.
+	 * @param sample the reading.
+	 * @return the filtered value after this reading.
+	 */
+	public double filter(double sample);
+	
+	/**
+	 * forgets all readings fed so far.
+	 */
+	public void reset();
+}
@@ -0,0 +1,128 @@
+/**
+ * One step of a TaskGraph.
+ *
+ * A task runs once, on one of the graph's worker threads, after all the tasks it depends on have
+ * finished. Among the tasks ready at the same time the one with the highest priority runs first,
+ * then the one with the earliest deadline. The graph records when the task ran and whether it
+ * finished within its deadline.
+ *
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ *
+ */
+public abstract class Task {
+
+	/**enum defining where a task is in its life. SKIPPED tasks depend on a task that FAILED. */
+	public enum State { WAITING, RUNNING, DONE, FAILED, SKIPPED };
+
+	/**name of the task, for the timing report */
+	private String name;
+
+	/**tasks with a higher priority run first */
+	private int priority;
+
+	/**time (ms after the start of the graph) by which the task should be done, 0 for none */
+	private long deadline;
+
+	/**tasks that have to finish before this one starts */
+	private Task [] dependencies = new Task [0];
+
+	/**life of the task, changed by the graph under its monitor */
+	State state = State.WAITING;
+
+	/**start and end of the run, in ms after the start of the graph */
+	long startTime, endTime;
+
+	/**
+	 * default constructor.
+	 * @param name name of the task.
+	 * @param priority tasks with a higher priority run first.
+	 * @param deadline time (ms after the start of the graph) by which the task should be done, 0 for none.
+	 */
+	public Task(String name, int priority, long deadline) {
+		this.name = name;
+		this.priority = priority;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * the work of the task. Runs on a worker thread of the graph.
+	 */
+	protected abstract void execute();
+
+	/**
+	 * declares that this task starts only after another one has finished.
+	 * @param task the task to wait for.
+	 * @return this task, so declarations can be chained.
+	 */
+	public Task after(Task task) {
+		Task [] more = new Task [dependencies.length + 1];
+		System.arraycopy(dependencies, 0, more, 0, dependencies.length);
+		more[dependencies.length] = task;
+		dependencies = more;
+		return this;
+	}
+
+	/**
+	 * @return the tasks this one waits for.
+	 */
+	Task [] getDependencies() {
+		return dependencies;
+	}
+
+	/**
+	 * @return the name of the task.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the priority of the task.
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @return the deadline of the task, in ms after the start of the graph (0 for none).
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * @return where the task is in its life.
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return the start of the run, in ms after the start of the graph.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the end of the run, in ms after the start of the graph.
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+
+	/**
+	 * @return how long the run took, in ms.
+	 */
+	public long getDuration() {
+		return endTime - startTime;
+	}
+
+	/**
+	 * @return true if the task has a deadline and ended after it.
+	 */
+	public boolean missedDeadline() {
+		return deadline > 0 && endTime > deadline;
+	}
+}
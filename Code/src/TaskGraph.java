@@ -0,0 +1,214 @@
+/**
+ * Runs a set of Tasks with declared dependencies on a small pool of worker threads.
+ *
+ * Independent tasks run at the same time, so work such as preparing the launcher or planning a
+ * path can overlap with the robot driving. A free worker always takes the ready task with the
+ * highest priority (then the earliest deadline). When a task throws, the tasks depending on it
+ * are skipped and the rest of the graph goes on. The start and end of every task are recorded
+ * for the timing report.
+ *
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ *
+ */
+public class TaskGraph {
+
+	/**tasks of the graph, in the order they were added */
+	private Task [] tasks;
+
+	/**number of tasks added */
+	private int size;
+
+	/**number of tasks that have not ended yet (DONE, FAILED or SKIPPED) */
+	private int remaining;
+
+	/**time the graph was started, in ms */
+	private long start;
+
+	/**
+	 * default constructor.
+	 * @param capacity most tasks the graph holds.
+	 */
+	public TaskGraph(int capacity) {
+		tasks = new Task [capacity];
+	}
+
+	/**
+	 * adds a task. Its dependencies have to be added too.
+	 * @param task the task to add.
+	 * @return the task, so dependencies can be declared on it.
+	 */
+	public Task add(Task task) {
+		tasks[size++] = task;
+		return task;
+	}
+
+	/**
+	 * runs all the tasks and returns when every one of them has ended.
+	 * @param workers number of tasks that may run at the same time.
+	 * @return true if every task finished, false if some failed or were skipped.
+	 */
+	public boolean run(int workers) {
+		synchronized (this) {
+			start = System.currentTimeMillis();
+			remaining = size;
+			for (int i = 0; i < size; i++)
+				tasks[i].state = Task.State.WAITING;
+		}
+
+		Thread [] pool = new Thread [workers];
+		for (int i = 0; i < workers; i++) {
+			pool[i] = new Thread() {
+				public void run() {
+					Task task;
+					while ((task = nextTask()) != null) {
+						// anything thrown, Errors included, fails the task, so the tasks after it
+						// are always released or skipped and the worker goes on
+						boolean failed = false;
+						try {
+							task.execute();
+						} catch (Throwable e) {
+							failed = true;
+						}
+						taskEnded(task, failed);
+					}
+				}
+			};
+			pool[i].start();
+		}
+
+		for (int i = 0; i < workers; i++) {
+			try {
+				pool[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		for (int i = 0; i < size; i++)
+			if (tasks[i].state != Task.State.DONE)
+				return false;
+		return true;
+	}
+
+	/**
+	 * helper method that blocks a worker until a task is ready for it.
+	 * @return the task to run, null once every task has ended.
+	 */
+	private synchronized Task nextTask() {
+		while (remaining > 0) {
+			Task best = null;
+			for (int i = 0; i < size; i++) {
+				Task task = tasks[i];
+				if (task.state == Task.State.WAITING && isReady(task) && (best == null || runsBefore(task, best)))
+					best = task;
+			}
+			if (best != null) {
+				best.state = Task.State.RUNNING;
+				best.startTime = System.currentTimeMillis() - start;
+				return best;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * helper method that records the end of a task, skips the tasks that can no longer run and
+	 * wakes up the idle workers.
+	 * @param task the task that ended.
+	 * @param failed true if the task threw.
+	 */
+	private synchronized void taskEnded(Task task, boolean failed) {
+		task.endTime = System.currentTimeMillis() - start;
+		task.state = failed ? Task.State.FAILED : Task.State.DONE;
+		remaining--;
+
+		// skipping a task can make the ones after it skippable, so repeat until nothing changes
+		boolean skipped = failed;
+		while (skipped) {
+			skipped = false;
+			for (int i = 0; i < size; i++) {
+				if (tasks[i].state == Task.State.WAITING && dependsOnEnded(tasks[i])) {
+					tasks[i].state = Task.State.SKIPPED;
+					tasks[i].startTime = tasks[i].endTime = task.endTime;
+					remaining--;
+					skipped = true;
+				}
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * helper method that tells if all the dependencies of a task are done.
+	 * @param task the task.
+	 * @return true if the task can start.
+	 */
+	private boolean isReady(Task task) {
+		Task [] dependencies = task.getDependencies();
+		for (int i = 0; i < dependencies.length; i++)
+			if (dependencies[i].state != Task.State.DONE)
+				return false;
+		return true;
+	}
+
+	/**
+	 * helper method that tells if a task depends on one that failed or was skipped.
+	 * @param task the task.
+	 * @return true if the task can never start.
+	 */
+	private boolean dependsOnEnded(Task task) {
+		Task [] dependencies = task.getDependencies();
+		for (int i = 0; i < dependencies.length; i++)
+			if (dependencies[i].state == Task.State.FAILED || dependencies[i].state == Task.State.SKIPPED)
+				return true;
+		return false;
+	}
+
+	/**
+	 * helper method that orders two ready tasks.
+	 * @param a a ready task.
+	 * @param b another ready task.
+	 * @return true if a should run before b.
+	 */
+	private static boolean runsBefore(Task a, Task b) {
+		if (a.getPriority() != b.getPriority())
+			return a.getPriority() > b.getPriority();
+		if (a.getDeadline() == 0 || b.getDeadline() == 0)
+			return b.getDeadline() == 0 && a.getDeadline() != 0;
+		return a.getDeadline() < b.getDeadline();
+	}
+
+	/**
+	 * @return the number of tasks added.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * task accessor, for the timing report.
+	 * @param i index of the task, in the order they were added.
+	 * @return the task.
+	 */
+	public Task getTask(int i) {
+		return tasks[i];
+	}
+
+	/**
+	 * @return the number of tasks that ended after their deadline.
+	 */
+	public synchronized int getDeadlineMisses() {
+		int misses = 0;
+		for (int i = 0; i < size; i++)
+			if (tasks[i].missedDeadline())
+				misses++;
+		return misses;
+	}
+}
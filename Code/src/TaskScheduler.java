@@ -69,6 +69,16 @@ public class TaskScheduler {
 	/**second launching X position*/
 	private static final int secondLaunchY=10;
 	
+	//mission graph
+	/**number of mission tasks that may run at the same time */
+	private static final int MISSION_WORKERS = 2;
+	
+	/**priority of the tasks that drive the robot, ahead of the planning ones */
+	private static final int DRIVE_PRIORITY = 2;
+	
+	/**priority of the planning and preparation tasks */
+	private static final int PLAN_PRIORITY = 1;
+	
 	
 	/**
 	 * Main function of the program
@@ -88,7 +98,7 @@ public class TaskScheduler {
 		
 		//robotometery
 		TwoWheeledRobot patBot = new TwoWheeledRobot(Motor.B, Motor.A);
-		Odometer odo = new Odometer(patBot, true, colorSensor);
+		Odometer odo = new Odometer(patBot, false, colorSensor);
 		OdometryCorrection odoCorr = new OdometryCorrection(odo, lightListener);
 		
 		//Localizer Classes
@@ -96,13 +106,33 @@ public class TaskScheduler {
 		LightLocalizer lightLocalizer = new LightLocalizer(odo, lightListener );
 		
 		//LCD
-		LCDInfo lcd = new LCDInfo(odo);
+		LCDInfo lcd = new LCDInfo(odo, false);
 		
 		//Launcher
 		Launcher launcher = new Launcher();
 		
 		//*********************INITIALIZATIONS***************//
-		lightListener.start();
+		FastTrig.setEnabled(true);
+		lightListener.addLineListener(new LineListener() {
+			public void lineDetected(long time, int rawValue, int polarity) {
+				if (polarity > 0)
+					Sound.beep();
+			}
+		});
+		
+		// one thread for the periodic work. The odometer and light sensor are sampled in the same
+		// frame, so every line is matched with the pose of the tick it was seen in. The odometer
+		// thus ticks at the 20 ms period of the light sensor instead of Odometer.DEFAULT_PERIOD,
+		// and its pose history covers the last 1.28 s
+		SampleClock clock = new SampleClock(2);
+		odo.setSampleClock(clock);
+		lightListener.setSampleClock(clock);
+		clock.add(odo);
+		clock.add(lightListener);
+		PeriodicExecutor executor = new PeriodicExecutor(4);
+		executor.register(clock, lightListener.getPeriod(), 0);
+		executor.register(lcd, LCDInfo.LCD_REFRESH, 5);
+		executor.start();
 		nav = odo.getNavigation();
 		
 		
@@ -111,86 +141,219 @@ public class TaskScheduler {
 		
 		
 		//********************TASKS****************************//
+		TaskGraph mission = buildMission(odo, patBot, usLocalizer, lightLocalizer, launcher);
+		mission.run(MISSION_WORKERS);
 		
-		//FIRST LOCALIZATION
-		usLocalizer.doLocalization();
-		nav.turnTo(225.0);
-		patBot.setSpeeds(0, 0);
-		lightLocalizer.doLocalization();
 		
-		//***************Navigation*******************
+		//*****************************END OF TASK PROMPT********************//
+		LCD.clear();
+		for (int i = 0; i < mission.getSize() && i < 7; i++) {
+			Task task = mission.getTask(i);
+			LCD.drawString(task.getName(), 0, i);
+			LCD.drawInt((int) (task.getDuration() / 100), 10, i);
+		}
+		LCD.drawString("misses:", 0, 7);
+		LCD.drawInt(mission.getDeadlineMisses(), 8, 7);
+		Button.waitForAnyPress();
+
+		
+
+}
+	
+	/**
+	 * builds the mission as a task graph.
+	 * 
+	 * The driving tasks depend on each other in the order of the original script, since they all
+	 * share the wheels. While the robot drives to the first launch position, the launcher turns its
+	 * arm part of the way into the first shot (see Launcher.prepare()), so the shots start sooner.
+	 * The launch table and the return path are cheap array work, taken off the driving tasks too.
+	 * @param odo the odometer of the robot.
+	 * @param patBot the robot.
+	 * @param usLocalizer the ultrasonic localizer.
+	 * @param lightLocalizer the light localizer.
+	 * @param launcher the launcher.
+	 * @return the graph, ready to run.
+	 */
+	private static TaskGraph buildMission(final Odometer odo, final TwoWheeledRobot patBot, 
+			final USLocalizer usLocalizer, final LightLocalizer lightLocalizer, final Launcher launcher) {
+		TaskGraph mission = new TaskGraph(16);
 		
 		//MAP 1
-//		double targetSeqX[] = MAP1_COORDS_X;
-//		double targetSeqY[] = MAP1_COORDS_Y;
+//		final double targetSeqX[] = MAP1_COORDS_X;
+//		final double targetSeqY[] = MAP1_COORDS_Y;
 		
 		//MAP 2
-//		double targetSeqX[] = MAP2_COORDS_X;
-//		double targetSeqY[] = MAP2_COORDS_Y;
+//		final double targetSeqX[] = MAP2_COORDS_X;
+//		final double targetSeqY[] = MAP2_COORDS_Y;
 		
 		//MAP 3
-		 double targetSeqX[] = MAP3_COORDS_X;
-		 double targetSeqY[] = MAP3_COORDS_Y;
+		final double targetSeqX[] = MAP3_COORDS_X;
+		final double targetSeqY[] = MAP3_COORDS_Y;
 		
-		nav.travelToSequence(targetSeqX, targetSeqY);
-	
-		//SECOND LOCALIZATION
-		usLocalizer.doLocalization();
-		nav.turnTo(225.0);
-		patBot.setSpeeds(0, 0);
-		lightLocalizer.doLocalization();
+		// filled by the planning tasks, read by the tasks that depend on them
+		final double [][] returnSeq = new double [2][];
 		
-		nav.travelTo(0, 0);
-		nav.turnTo(0);
+		// set by each approach when the robot reached a launch pose; the launch after it fires only then
+		final boolean [] inPosition = new boolean [2];
 		
-		/*
-		 * the odometer values get reset here
-		 * to the correct values
-		 * this allows recycling the localization from the first step.
-		 */
-		double tempPos[] = new double[3];
-		odo.getPosition(tempPos);
-		tempPos[0]= tempPos[0]+300;
-		tempPos[1]= tempPos[1]+300;
-		tempPos[2]= tempPos[2]+180;
-		odo.setPosition(tempPos, new boolean[]{true, true, true});
-
+		//FIRST LOCALIZATION
+		Task firstLocalization = mission.add(new Task("local 1", DRIVE_PRIORITY, 60000) {
+			protected void execute() {
+				localize(patBot, usLocalizer, lightLocalizer);
+			}
+		});
+		
+		//***************Navigation*******************
+		Task map = mission.add(new Task("map", DRIVE_PRIORITY, 180000) {
+			protected void execute() {
+				nav.travelToSequence(targetSeqX, targetSeqY);
+			}
+		}).after(firstLocalization);
+		
+		//SECOND LOCALIZATION
+		Task secondLocalization = mission.add(new Task("local 2", DRIVE_PRIORITY, 240000) {
+			protected void execute() {
+				localize(patBot, usLocalizer, lightLocalizer);
+				nav.travelTo(0, 0);
+				nav.turnTo(0);
+				
+				/*
+				 * the odometer values get reset here
+				 * to the correct values
+				 * this allows recycling the localization from the first step.
+				 */
+				double tempPos[] = new double[3];
+				odo.getPosition(tempPos);
+				tempPos[0]= tempPos[0]+300;
+				tempPos[1]= tempPos[1]+300;
+				tempPos[2]= tempPos[2]+180;
+				odo.setPosition(tempPos, new boolean[]{true, true, true});
+			}
+		}).after(map);
 		
 		//***************LAUNCH ATTEMPTS********************/
-		double[] launchDestionations = new double[3];
+		Task planLaunches = mission.add(new Task("plan shots", PLAN_PRIORITY, 0) {
+			protected void execute() {
+				launcher.buildLaunchTable();
+			}
+		});
+		
+		Task prepareLauncher = mission.add(new Task("prep launch", PLAN_PRIORITY, 0) {
+			protected void execute() {
+				launcher.prepare();
+			}
+		}).after(secondLocalization);
 		
 		//first launch
-		launchDestionations = launcher.getLaunchPos(firstLaunchX, firstLaunchY);
-		nav.travelTo(launchDestionations[0], launchDestionations[1]);
-		nav.turnTo(launchDestionations[2]);
-		launcher.autoLaunch(3);
+		Task firstApproach = mission.add(new Task("approach 1", DRIVE_PRIORITY, 270000) {
+			protected void execute() {
+				inPosition[0] = approach(odo, launcher, firstLaunchX, firstLaunchY);
+			}
+		}).after(secondLocalization).after(planLaunches);
+		
+		Task firstLaunch = mission.add(new Task("launch 1", DRIVE_PRIORITY, 280000) {
+			protected void execute() {
+				if (inPosition[0])
+					launch(odo, launcher, 3);
+			}
+		}).after(firstApproach).after(prepareLauncher);
 		
 		//second launch
-		launchDestionations = launcher.getLaunchPos(secondLaunchX, secondLaunchY);
-		nav.travelTo(launchDestionations[0], launchDestionations[1]);
-		nav.turnTo(launchDestionations[2]);
-		launcher.autoLaunch(3);
+		Task secondApproach = mission.add(new Task("approach 2", DRIVE_PRIORITY, 290000) {
+			protected void execute() {
+				inPosition[1] = approach(odo, launcher, secondLaunchX, secondLaunchY);
+			}
+		}).after(firstLaunch);
 		
+		Task secondLaunch = mission.add(new Task("launch 2", DRIVE_PRIORITY, 300000) {
+			protected void execute() {
+				if (inPosition[1])
+					launch(odo, launcher, 3);
+			}
+		}).after(secondApproach);
 		
 		//travel Back to the original starting position
 		
 		//Restack the waypoints stack
-		targetSeqX = invertArray(targetSeqX);
-		targetSeqY = invertArray(targetSeqY);
+		Task planReturn = mission.add(new Task("plan return", PLAN_PRIORITY, 0) {
+			protected void execute() {
+				returnSeq[0] = invertArray(targetSeqX);
+				returnSeq[1] = invertArray(targetSeqY);
+			}
+		}).after(firstApproach);
 		
 		//traveling back
-		nav.travelToSequence(targetSeqX, targetSeqY);
-		nav.travelTo(0, 0);
-		nav.turnTo(0);
-
-		
+		mission.add(new Task("return", DRIVE_PRIORITY, 0) {
+			protected void execute() {
+				nav.travelToSequence(returnSeq[0], returnSeq[1]);
+				nav.travelTo(0, 0);
+				nav.turnTo(0);
+			}
+		}).after(secondLaunch).after(planReturn);
 		
-		//*****************************END OF TASK PROMPT********************//
-		Button.waitForAnyPress();
-
+		return mission;
+	}
+	
+	/**
+	 * ultrasonic then light localization, as done at both ends of the map.
+	 * @param patBot the robot.
+	 * @param usLocalizer the ultrasonic localizer.
+	 * @param lightLocalizer the light localizer.
+	 */
+	private static void localize(TwoWheeledRobot patBot, USLocalizer usLocalizer, LightLocalizer lightLocalizer) {
+		usLocalizer.doLocalization();
+		nav.turnTo(225.0);
+		patBot.setSpeeds(0, 0);
+		lightLocalizer.doLocalization();
+	}
+	
+	/**
+	 * fires shots from the current pose, holding the heading the robot had when it started: the
+	 * launcher holds after every shot, and if the shot knocked the robot off that heading it turns
+	 * back before the next shot is released.
+	 * @param odo the odometer of the robot.
+	 * @param launcher the launcher.
+	 * @param shots number of shots to fire.
+	 */
+	private static void launch(Odometer odo, Launcher launcher, int shots) {
+		FiringEngine engine = launcher.getFiringEngine();
+		double [] pos = new double [3];
+		odo.getPosition(pos);
+		double heading = pos[2];
 		
-
-}
+		int seen = engine.getFired();
+		launcher.holdAfterShot(true);
+		launcher.fire(shots);
+		while (engine.awaitShot(seen, 0)) {
+			seen = engine.getFired();
+			if (engine.getQueued() == 0)
+				break;
+			odo.getPosition(pos);
+			if (Math.abs(Odometer.minimumAngleFromTo(pos[2], heading)) > Navigation.DEG_ERR)
+				nav.turnTo(heading);
+			launcher.resume();
+		}
+		launcher.holdAfterShot(false);
+	}
+	
+	/**
+	 * drives to the launch position closest to the robot and faces the target.
+	 * @param odo the odometer of the robot.
+	 * @param launcher the launcher.
+	 * @param targetX the X coordinate (in tiles) of the target.
+	 * @param targetY the Y coordinate (in tiles) of the target.
+	 * @return false if the target cannot be reached from the launch zone; the robot does not move
+	 * 			and the shots at that target must not be fired.
+	 */
+	private static boolean approach(Odometer odo, Launcher launcher, int targetX, int targetY) {
+		double [] pos = new double [3], destination = new double [3];
+		odo.getPosition(pos);
+		if (!launcher.getLaunchPos(targetX, targetY, pos, destination))
+			return false;
+		nav.travelTo(destination[0], destination[1]);
+		nav.turnTo(destination[2]);
+		return true;
+	}
 	
 	/**
 	 * takes an array stack and reverses the order of elements
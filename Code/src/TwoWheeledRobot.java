@@ -19,6 +19,10 @@ public class TwoWheeledRobot {
 	/**the default calibrated effective distance between the center of two wheels */
 	public static final double DEFAULT_WIDTH = 15.4;
 	
+	/**distance of the light sensor ahead of the odometry center, along the heading. Used by every
+	 * class that projects the sensor onto the grid. */
+	public static final double LIGHT_SENSOR_DISTANCE = 11.8;
+	
 	/**the default acceleration to be used for motors for smooth movement. can be overwritten
 	 * by the setAccelerations() function. */
 	public static final int  ACCELERATION = 500;
@@ -39,6 +43,15 @@ public class TwoWheeledRobot {
 	
 	//the forward and rotational components of the speed
 	private double forwardSpeed, rotationSpeed;
+	
+	/**wheel speeds (deg/s) being commanded by setSpeeds() */
+	private int [] wheelSpeeds = new int[2];
+	
+	/**last direction (1 backward, -1 forward, 0 unknown) and speed (-1 unknown) sent to each wheel */
+	private int [] commandedDirection = {0, 0}, commandedSpeed = {-1, -1};
+	
+	/**counters of the motor calls issued and skipped by setSpeeds() */
+	private int issuedCommands, suppressedCommands;
 
 	/**
 	 * default constructor.
@@ -121,13 +134,55 @@ public class TwoWheeledRobot {
 		data[1] = (leftTacho * leftRadius - rightTacho * rightRadius) / width;
 	}
 	
+	/**
+	 * accessor method for the effective left wheel radius.
+	 * @return the left wheel radius.
+	 */
+	public double getLeftRadius() {
+		return leftRadius;
+	}
+	
+	/**
+	 * accessor method for the effective right wheel radius.
+	 * @return the right wheel radius.
+	 */
+	public double getRightRadius() {
+		return rightRadius;
+	}
+	
+	/**
+	 * accessor method for the wheelbase (distance between the two wheel centers).
+	 * @return the wheelbase of the robot.
+	 */
+	public double getWidth() {
+		return width;
+	}
+	
+	/**
+	 * helper method that converts forward and rotational speed components into the signed 
+	 * speeds (in deg/s, clipped to 900) that setSpeeds() would command to the left and right motors.
+	 * Does not touch the motors.
+	 * @param forwardSpeed forward speed component of the robot.
+	 * @param rotationalSpeed rotational speed component of the robot.
+	 * @param speeds array receiving the left (index 0) and right (index 1) wheel speeds.
+	 */
+	public void computeWheelSpeeds(double forwardSpeed, double rotationalSpeed, int [] speeds) {
+		double leftSpeed = (forwardSpeed + rotationalSpeed * width * Math.PI / 360.0) *
+				180.0 / (leftRadius * Math.PI);
+		double rightSpeed = (forwardSpeed - rotationalSpeed * width * Math.PI / 360.0) *
+				180.0 / (rightRadius * Math.PI);
+		
+		speeds[0] = leftSpeed > 900.0 ? 900 : leftSpeed < -900.0 ? -900 : (int) leftSpeed;
+		speeds[1] = rightSpeed > 900.0 ? 900 : rightSpeed < -900.0 ? -900 : (int) rightSpeed;
+	}
+	
 	// mutators
 	
 	/**
 	 * sets the forward speed component of the robot.
 	 * @param speed the new forward speed component of the robot.
 	 */
-	public void setForwardSpeed(double speed) {
+	public synchronized void setForwardSpeed(double speed) {
 		forwardSpeed = speed;
 		setSpeeds(forwardSpeed, rotationSpeed);
 	}
@@ -136,7 +191,7 @@ public class TwoWheeledRobot {
 	 * sets the rotation speed component of the robot.
 	 * @param speed the new rotation speed component of the robot.
 	 */
-	public void setRotationSpeed(double speed) {
+	public synchronized void setRotationSpeed(double speed) {
 		rotationSpeed = speed;
 		setSpeeds(forwardSpeed, rotationSpeed);
 	}
@@ -144,48 +199,79 @@ public class TwoWheeledRobot {
 	/**
 	 * calculates and sets the speeds of the left and right wheels based on the forward speed and 
 	 * rotational speed components passed in.
+	 * 
+	 * Both wheels are commanded as one atomic update. The last direction and speed sent to each 
+	 * motor are cached, and a forward()/backward() or setSpeed() call is only issued when its value
+	 * differs from the cached one.
 	 * @param forwardSpeed forward speed component of the robot.
 	 * @param rotationalSpeed rotational speed component of the robot.
 	 */
-	public void setSpeeds(double forwardSpeed, double rotationalSpeed) {
-		double leftSpeed, rightSpeed;
-
+	public synchronized void setSpeeds(double forwardSpeed, double rotationalSpeed) {
 		this.forwardSpeed = forwardSpeed;
 		this.rotationSpeed = rotationalSpeed; 
 
-		leftSpeed = (forwardSpeed + rotationalSpeed * width * Math.PI / 360.0) *
-				180.0 / (leftRadius * Math.PI);
-		rightSpeed = (forwardSpeed - rotationalSpeed * width * Math.PI / 360.0) *
-				180.0 / (rightRadius * Math.PI);
+		computeWheelSpeeds(forwardSpeed, rotationalSpeed, wheelSpeeds);
 		
+		commandWheel(leftMotor, 0, wheelSpeeds[0]);
+		commandWheel(rightMotor, 1, wheelSpeeds[1]);
+	}
+	
+	/**
+	 * helper method that sends a signed speed to one wheel motor, skipping the calls that 
+	 * would repeat the cached direction or speed.
+	 * @param motor the motor of the wheel.
+	 * @param wheel index of the wheel in the command cache (0 left, 1 right).
+	 * @param speed signed wheel speed in deg/s.
+	 */
+	private void commandWheel(NXTRegulatedMotor motor, int wheel, int speed) {
+		int direction = speed > 0 ? 1 : -1;
+		int magnitude = speed > 0 ? speed : -speed;
 		
 		//FORWARD-BACKWARD FLIPPED
-		// set motor directions
-		if (leftSpeed > 0.0)
-			leftMotor.backward(); 
-		else {
-			leftMotor.forward();
-			leftSpeed = -leftSpeed;
+		// set motor direction
+		if (direction != commandedDirection[wheel]) {
+			if (direction > 0)
+				motor.backward();
+			else
+				motor.forward();
+			commandedDirection[wheel] = direction;
+			issuedCommands++;
+		} else {
+			suppressedCommands++;
 		}
 		
-		if (rightSpeed > 0.0)
-			rightMotor.backward();
-		else {
-			rightMotor.forward();
-			rightSpeed = -rightSpeed;
+		// set motor speed
+		if (magnitude != commandedSpeed[wheel]) {
+			motor.setSpeed(magnitude);
+			commandedSpeed[wheel] = magnitude;
+			issuedCommands++;
+		} else {
+			suppressedCommands++;
 		}
-		
-		
-		// set motor speeds
-		if (leftSpeed > 900.0)
-			leftMotor.setSpeed(900);
-		else
-			leftMotor.setSpeed((int)leftSpeed);
-		
-		if (rightSpeed > 900.0)
-			rightMotor.setSpeed(900);
-		else
-			rightMotor.setSpeed((int)rightSpeed);
+	}
+	
+	/**
+	 * clears the cached motor commands, so the next setSpeeds() sends both direction and speed
+	 * to both motors. Must be called after the motors were driven directly (stop(), rotate()...),
+	 * since the cache no longer matches what they are doing.
+	 */
+	public synchronized void invalidateCommands() {
+		commandedDirection[0] = commandedDirection[1] = 0;
+		commandedSpeed[0] = commandedSpeed[1] = -1;
+	}
+	
+	/**
+	 * @return the number of motor calls issued by setSpeeds().
+	 */
+	public int getIssuedCommands() {
+		return issuedCommands;
+	}
+	
+	/**
+	 * @return the number of motor calls setSpeeds() skipped because they repeated the last command.
+	 */
+	public int getSuppressedCommands() {
+		return suppressedCommands;
 	}
 	
 	/**
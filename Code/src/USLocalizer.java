@@ -12,7 +12,7 @@ import lejos.nxt.UltrasonicSensor;
 public class USLocalizer {
 	/**enum defining the type of the localization used by the class.
 	 */
-	public enum LocalizationType { FALLING_EDGE, RISING_EDGE };
+	public enum LocalizationType { FALLING_EDGE, RISING_EDGE, FULL_SWEEP };
 	
 	/**speed at which rotation is done while performing ultrasonic localization.
 	 * This is tor ensure no sensor errors and necessary precision.*/
@@ -25,7 +25,8 @@ public class USLocalizer {
 	private LocalizationType locType;
 	private Navigation nav;
 	
-	private int usData[] = new int[5];
+	/**buffer of the filtered ultrasonic readings */
+	private SampleBuffer usData = new SampleBuffer(8);
 	
 	//Value to clip US results by
 	private int clippingValue =55; 
@@ -33,7 +34,65 @@ public class USLocalizer {
 	
 	//value to rotate motors by
 	private int rotateSpeed = 40;
-	int usTrialCounter;
+	
+	/**true to find the RISING_EDGE edges by interpolation over the recorded sweep instead of latching the odometer */
+	private boolean interpolateEdges = false;
+	
+	/**rotation speed of the interpolated sweeps */
+	private int sweepSpeed = 2 * rotateSpeed;
+	
+	/**number of readings the sweep recording can hold */
+	private static final int SWEEP_CAPACITY = 256;
+	
+	/**sweep recording: odometer heading, filtered distance and time of each reading */
+	private double [] sweepHeading = new double [SWEEP_CAPACITY];
+	private int [] sweepDistance = new int [SWEEP_CAPACITY];
+	private long [] sweepTime = new long [SWEEP_CAPACITY];
+	private int sweepSize;
+	
+	/**scratch pose used to look up the heading of a reading */
+	private double [] samplePose = new double [3];
+	
+	/**number of heading bins of the FULL_SWEEP scan (2 degrees each) */
+	private static final int SCAN_BINS = 180;
+	
+	/**readings further than this (cm) are not taken as wall points by FULL_SWEEP */
+	private static final int SCAN_RANGE = 80;
+	
+	/**fewest wall points each wall needs for the FULL_SWEEP fit */
+	private static final int MIN_WALL_POINTS = 4;
+	
+	/**position of the two walls next to the starting corner */
+	private static final double WALL_X = -20, WALL_Y = -20;
+	
+	/**variance (cm^2) of x and y before the calibration ranges, when fused by a PoseEstimator */
+	private static final double INITIAL_POSITION_VARIANCE = 900;
+	
+	/**polar scan: closest reading of each heading bin (-1 when empty) and the heading it was taken at */
+	private int [] scanDistance = new int [SCAN_BINS];
+	private double [] scanHeading = new double [SCAN_BINS];
+	
+	/**wall points of the scan relative to the robot, in the odometer frame, and the wall each is assigned to */
+	private double [] pointX = new double [SCAN_BINS];
+	private double [] pointY = new double [SCAN_BINS];
+	private int [] pointWall = new int [SCAN_BINS];
+	
+	/**fitted walls: heading of the normal from the robot to the wall, and distance to the wall */
+	private double [] wallNormal = new double [2];
+	private double [] wallDistance = new double [2];
+	
+	/**outlier filter of the ultrasonic readings: a reading further than 3 MADs (and 10 cm) from
+	 * the median of the last 5 readings is replaced by that median */
+	private SampleFilter usFilter = new HampelFilter(5, 3.0, 10.0);
+	
+	/**background sampler of the ultrasonic sensor, active during localization */
+	private USSampler sampler;
+	
+	/**longest wait for a reading from the sampler, in ms */
+	private static final long SAMPLE_TIMEOUT = 200;
+	
+	/**fresh readings the outlier-filter is refilled with after a turn, before a calibration range is read */
+	private static final int CALIBRATION_SAMPLES = 3;
 	
 	/**
 	 * default constructor. Initializes class variables.
@@ -47,9 +106,10 @@ public class USLocalizer {
 		this.us = us;
 		this.locType = locType;
 		this.nav = odo.getNavigation();
-		usTrialCounter =5;
-		// switch off the ultrasonic sensor
+		// switch off the ultrasonic sensor, the sampler switches it on while localizing
 		us.off();
+		sampler = new USSampler(us);
+		sampler.start();
 	}
 	
 	/**
@@ -59,9 +119,16 @@ public class USLocalizer {
 	public void doLocalization() {
 		double [] pos = new double [3];
 		double angleA, angleB ;
+		usFilter.reset();
+		sampler.setActive(true);
 		
 		
-		if (locType == LocalizationType.FALLING_EDGE) {
+		if (locType == LocalizationType.FULL_SWEEP && doSweepLocalization()) {
+			// done in one sweep; an unusable scan falls back to RISING_EDGE below
+			sampler.setActive(false);
+			nav.travelTo(-5,-5);
+			return;
+		} else if (locType == LocalizationType.FALLING_EDGE) {
 			
 			// rotate the robot until it sees no wall
 			while(getFilteredData() < clippingValue+10){
@@ -122,6 +189,19 @@ public class USLocalizer {
 
 			// rotate the robot until it sees the wall
 			
+			if (interpolateEdges) {
+				// sweep faster and find both edges in the recorded distance profile
+				while(getFilteredData() > clippingValue-15){
+					this.robot.setSpeeds(0, -sweepSpeed);
+				}
+				angleA = sweepToRisingEdge(sweepSpeed);
+				
+				while(getFilteredData() > clippingValue-15){
+					this.robot.setSpeeds(0, -sweepSpeed);
+				}
+				angleB = sweepToRisingEdge(-sweepSpeed);
+				robot.setSpeeds(0,0);
+			} else {
 			//Current and previous values for the margins.
 						double prevMarginVal;
 						double currentMarginVal;
@@ -175,6 +255,7 @@ public class USLocalizer {
 						
 						
 						angleB = (currentMarginVal + prevMarginVal)/2;
+			}
 
 
 						// angleA is clockwise from angleB, so assume the average of the
@@ -198,57 +279,334 @@ public class USLocalizer {
 		
 		//Do calbration after finding the approximate angle.
 		doInitialPosCalibration();
+		sampler.setActive(false);
 	}
 
 	
 	/**
-	 * gets the data from the ultrasonic sensor through an outlier-filter.
+	 * gets the next reading of the ultrasonic sensor through an outlier-filter.
 	 * 
 	 * @return the filtered ultrasonic sensor values.
 	 */
 	private int getFilteredData() {
+		// wait for the sampler's next reading
+		sampler.awaitNext(sampler.getCount(), SAMPLE_TIMEOUT);
+		return filter(sampler.getLatest(), sampler.getLatestTime());
+	}
+	
+	/**
+	 * gets the first reading of the ultrasonic sensor taken after a given time, through the outlier-filter.
+	 * 
+	 * @param time the time the reading must be newer than, typically the end of a turn.
+	 * @return the filtered ultrasonic sensor values.
+	 */
+	private int getFilteredDataAfter(long time) {
+		sampler.awaitSampleAfter(time, SAMPLE_TIMEOUT);
+		return filter(sampler.getLatest(), sampler.getLatestTime());
+	}
+	
+	/**
+	 * gets a calibration range after a turn. The outlier-filter still holds the readings taken
+	 * before the turn, which would replace the new wall reading by their median, so it is emptied
+	 * and refilled with fresh readings first.
+	 * 
+	 * @param time the end of the turn.
+	 * @return the filtered ultrasonic sensor value, from readings taken after the turn only.
+	 */
+	private int getSettledDataAfter(long time) {
+		usFilter.reset();
+		int distance = getFilteredDataAfter(time);
+		for (int i = 1; i < CALIBRATION_SAMPLES; i++)
+			distance = getFilteredData();
+		return distance;
+	}
+	
+	/**
+	 * outlier-filter of the ultrasonic readings. isolated readings far from the recent ones
+	 * (such as a missed echo reading 255) are replaced by the median of the recent readings.
+	 * 
+	 * @param distance the raw reading.
+	 * @param now the time the reading was taken.
+	 * @return the filtered ultrasonic sensor values.
+	 */
+	private int filter(int distance, long now) {
+		usData.push(usFilter.filter(distance), now);
+		//filter
+		if(usData.getLatest() > 250)
+			return 250;
+		else
+		return (int) usData.getLatest();
+	}
+	
+	/**
+	 * selects how the RISING_EDGE localization finds the wall edges.
+	 * 
+	 * When enabled, each sweep records (heading, distance, time) for every reading, the heading
+	 * being the odometer's at the time of the reading, and the edge is placed where the recorded
+	 * distance profile crosses clippingValue, interpolating between the two readings around it.
+	 * The sweep can then run faster than rotateSpeed without losing heading accuracy.
+	 * @param enabled true to interpolate the edges, false to latch the odometer when a reading crosses the margin.
+	 * @param speed rotation speed of the interpolated sweeps.
+	 */
+	public void setEdgeInterpolation(boolean enabled, int speed) {
+		this.interpolateEdges = enabled;
+		this.sweepSpeed = speed;
+	}
+	
+	/**
+	 * rotates, recording every reading, until the robot has clearly stopped seeing the wall, then
+	 * finds the heading of the rising edge in the recording.
+	 * @param speed the rotation speed (and direction) of the sweep.
+	 * @return the interpolated heading at which the distance crossed clippingValue.
+	 */
+	private double sweepToRisingEdge(int speed) {
+		sweepSize = 0;
 		int distance;
-
-		// do a ping
-		us.ping();
+		do {
+			this.robot.setSpeeds(0, speed);
+			distance = getFilteredData();
+			recordSweepSample(distance, usData.getLatestTime());
+		} while (distance < clippingValue + marginValue);
+		
+		return edgeHeading(clippingValue);
+	}
+	
+	/**
+	 * adds a reading to the sweep recording, with the odometer heading at the time it was taken.
+	 * Readings beyond SWEEP_CAPACITY are dropped.
+	 * @param distance the filtered reading.
+	 * @param time the time the reading was taken.
+	 */
+	private void recordSweepSample(int distance, long time) {
+		if (sweepSize == SWEEP_CAPACITY)
+			return;
+		odo.getPoseAt(time, samplePose);
+		sweepHeading[sweepSize] = samplePose[2];
+		sweepDistance[sweepSize] = distance;
+		sweepTime[sweepSize] = time;
+		sweepSize++;
+	}
+	
+	/**
+	 * finds the last rise of the recorded distance profile through a threshold.
+	 * @param threshold the distance the profile crosses.
+	 * @return the heading at which the profile crosses the threshold, interpolated between the
+	 * 			readings on either side; the last recorded heading if it never crosses.
+	 */
+	private double edgeHeading(int threshold) {
+		for (int i = sweepSize - 2; i >= 0; i--) {
+			int below = sweepDistance[i], above = sweepDistance[i + 1];
+			if (below <= threshold && above > threshold) {
+				double f = (double) (threshold - below) / (above - below);
+				double a = sweepHeading[i];
+				return Odometer.fixDegAngle(a + Odometer.minimumAngleFromTo(a, sweepHeading[i + 1]) * f);
+			}
+		}
+		return sweepSize > 0 ? sweepHeading[sweepSize - 1] : 0.0;
+	}
+	
+	/**
+	 * FULL_SWEEP localization: rotates once through 360 degrees without stopping, keeping the closest
+	 * reading of every heading bin, then fits a line to each of the two walls of the starting corner.
+	 * The normals of the walls give the heading and the distances to them give x and y, so no edge
+	 * search or calibration turns are needed.
+	 * @return true if both walls were fitted and the odometer was updated, false if the scan was unusable.
+	 */
+	private boolean doSweepLocalization() {
+		for (int i = 0; i < SCAN_BINS; i++)
+			scanDistance[i] = -1;
+		
+		// one continuous turn, tracking how far the robot has rotated
+		odo.getPosition(samplePose);
+		double lastHeading = samplePose[2];
+		double swept = 0.0;
+		while (swept < 360.0 + 360.0 / SCAN_BINS) {
+			this.robot.setSpeeds(0, sweepSpeed);
+			int distance = getFilteredData();
+			odo.getPoseAt(usData.getLatestTime(), samplePose);
+			
+			int bin = (int) (Odometer.fixDegAngle(samplePose[2]) * SCAN_BINS / 360.0) % SCAN_BINS;
+			if (scanDistance[bin] < 0 || distance < scanDistance[bin]) {
+				scanDistance[bin] = distance;
+				scanHeading[bin] = samplePose[2];
+			}
+			swept += Math.abs(Odometer.minimumAngleFromTo(lastHeading, samplePose[2]));
+			lastHeading = samplePose[2];
+		}
+		robot.setSpeeds(0,0);
+		
+		if (!fitWalls())
+			return false;
+		
+		// the back wall (y = WALL_Y) is faced at 180 degrees, the left wall (x = WALL_X) 90 degrees clockwise of it
+		int back = Odometer.minimumAngleFromTo(wallNormal[0], wallNormal[1]) > 0 ? 0 : 1;
+		int left = 1 - back;
+		double offset = (Odometer.minimumAngleFromTo(wallNormal[back], 180.0)
+				+ Odometer.minimumAngleFromTo(wallNormal[left], 270.0)) / 2.0;
+		
+		double [] pos = samplePose;
+		odo.getPosition(pos);
+		pos[0] = WALL_X + wallDistance[left];
+		pos[1] = WALL_Y + wallDistance[back];
+		pos[2] = Odometer.fixDegAngle(pos[2] + offset);
+		odo.setPosition(pos, new boolean [] {true, true, true});
+		LCD.drawString("x =" + pos[0], 0, 1);
+		LCD.drawString("y =" + pos[1], 0, 2);
+		return true;
+	}
+	
+	/**
+	 * splits the wall points of the scan between the two walls and fits a line to each.
+	 * 
+	 * The points are walked in heading order starting after the widest empty stretch (the open side
+	 * of the field) and split at the one furthest from the chord joining the first and last points,
+	 * which is the corner. Each point is then moved to
+	 * the wall whose fitted line it is closest to and both lines are refitted.
+	 * @return true if both walls have enough points.
+	 */
+	private boolean fitWalls() {
+		// start after the widest stretch of empty or far bins
+		int start = 0, gap = 0, bestGap = -1;
+		for (int i = 0; i < 2 * SCAN_BINS; i++) {
+			if (isWallBin(i % SCAN_BINS)) {
+				if (gap > bestGap) {
+					bestGap = gap;
+					start = i % SCAN_BINS;
+				}
+				gap = 0;
+			} else {
+				gap++;
+			}
+		}
+		if (bestGap < 0)
+			return false;
+		
+		int n = 0;
+		for (int k = 0; k < SCAN_BINS; k++) {
+			int bin = (start + k) % SCAN_BINS;
+			if (!isWallBin(bin))
+				continue;
+			pointX[n] = scanDistance[bin] * FastTrig.sin(scanHeading[bin]);
+			pointY[n] = scanDistance[bin] * FastTrig.cos(scanHeading[bin]);
+			n++;
+		}
+		if (n < 2 * MIN_WALL_POINTS)
+			return false;
+		
+		int corner = 0;
+		double furthest = -1;
+		double cx = pointX[n - 1] - pointX[0], cy = pointY[n - 1] - pointY[0];
+		for (int i = 0; i < n; i++) {
+			double offChord = Math.abs(cx * (pointY[i] - pointY[0]) - cy * (pointX[i] - pointX[0]));
+			if (offChord > furthest) {
+				furthest = offChord;
+				corner = i;
+			}
+		}
+		for (int i = 0; i < n; i++)
+			pointWall[i] = i < corner ? 0 : 1;
 		
-		// wait for the ping to complete
-		try { Thread.sleep(50); } catch (InterruptedException e) {}
+		if (!fitLine(n, 0) || !fitLine(n, 1))
+			return false;
 		
-		// there will be a delay here
-		distance = us.getDistance();
-		this.leftShiftArray(usData);
-		if(distance > 250){
-			if(usTrialCounter ==0){
-				usData[usData.length-1]=distance;
+		// nearest-line reassignment, then refit
+		for (int i = 0; i < n; i++)
+			pointWall[i] = Math.abs(lineResidual(i, 0)) <= Math.abs(lineResidual(i, 1)) ? 0 : 1;
+		return fitLine(n, 0) && fitLine(n, 1);
+	}
+	
+	/**
+	 * helper method that tells if a scan bin holds a wall reading.
+	 * @param bin the bin.
+	 * @return true if the bin has a reading within SCAN_RANGE.
+	 */
+	private boolean isWallBin(int bin) {
+		return scanDistance[bin] >= 0 && scanDistance[bin] <= SCAN_RANGE;
+	}
+	
+	/**
+	 * fits a line to the points of one wall by principal components: the line passes through their
+	 * mean along the direction of largest spread. Stores the heading of its normal and its distance.
+	 * @param n number of wall points.
+	 * @param wall the wall to fit (0 or 1).
+	 * @return true if the wall has at least MIN_WALL_POINTS points.
+	 */
+	private boolean fitLine(int n, int wall) {
+		int count = 0;
+		double mx = 0.0, my = 0.0;
+		for (int i = 0; i < n; i++) {
+			if (pointWall[i] == wall) {
+				mx += pointX[i];
+				my += pointY[i];
+				count++;
 			}
-			else{
-				usTrialCounter--;
-				usData[usData.length-1]=usData[usData.length-2];
+		}
+		if (count < MIN_WALL_POINTS)
+			return false;
+		mx /= count;
+		my /= count;
+		
+		double sxx = 0.0, syy = 0.0, sxy = 0.0;
+		for (int i = 0; i < n; i++) {
+			if (pointWall[i] == wall) {
+				double dx = pointX[i] - mx, dy = pointY[i] - my;
+				sxx += dx * dx;
+				syy += dy * dy;
+				sxy += dx * dy;
 			}
 		}
 		
-		else{
-			if(usTrialCounter<5)
-				usTrialCounter=5;
-			usData[usData.length-1]=distance;
+		// direction of the line, then its normal turned to point from the robot to the wall
+		double direction = 0.5 * Math.atan2(2.0 * sxy, sxx - syy);
+		double nx = -Math.sin(direction), ny = Math.cos(direction);
+		double distance = nx * mx + ny * my;
+		if (distance < 0) {
+			nx = -nx;
+			ny = -ny;
+			distance = -distance;
 		}
-		//filter
-		if(usData[usData.length-1] > 250)
-			return 250;
-		else
-		return usData[usData.length-1];
+		wallNormal[wall] = Odometer.fixDegAngle(Math.toDegrees(Math.atan2(nx, ny)));
+		wallDistance[wall] = distance;
+		return true;
+	}
+	
+	/**
+	 * helper method that computes how far a wall point is from a fitted wall.
+	 * @param i the point.
+	 * @param wall the wall (0 or 1).
+	 * @return the signed distance of the point past the wall.
+	 */
+	private double lineResidual(int i, int wall) {
+		return pointX[i] * FastTrig.sin(wallNormal[wall]) + pointY[i] * FastTrig.cos(wallNormal[wall]) - wallDistance[wall];
 	}
 	
 	/**
 	 * 	finds approximate position of robot, required for ls localization
+	 * 
+	 * With a PoseEstimator on the odometer, the two ranges are fused as wall observations
+	 * instead of overwriting x and y.
 	 */
 	private void doInitialPosCalibration(){
 		double pos[] = new double[3];
+		PoseEstimator estimator = odo.getPoseEstimator();
+		if (estimator != null) {
+			// the position is unknown before the calibration, only the heading was found
+			estimator.reset(INITIAL_POSITION_VARIANCE, PoseEstimator.SET_HEADING_VARIANCE);
+			nav.turnTo(270);
+			estimator.observeWallRange(getSettledDataAfter(SampleClock.now()), WALL_X, true);
+			nav.turnTo(180);
+			estimator.observeWallRange(getSettledDataAfter(SampleClock.now()), WALL_Y, false);
+			odo.getPosition(pos);
+			LCD.drawString("x =" + pos[0], 0, 1);
+			LCD.drawString("y =" + pos[1], 0, 2);
+			nav.travelTo(-5,-5);
+			return;
+		}
+		
 		nav.turnTo(270);
-		pos[0] = -20 + getFilteredData();
+		pos[0] = -20 + getSettledDataAfter(SampleClock.now());
 		nav.turnTo(180);
-		pos[1] = -20 + getFilteredData();
+		pos[1] = -20 + getSettledDataAfter(SampleClock.now());
 		
 		
 		odo.setPosition(pos, new boolean[] {true,true, false});
@@ -257,17 +615,5 @@ public class USLocalizer {
 		nav.travelTo(-5,-5);
 		
 	}
-	
-	
-	/**helper function to left shift an array input
-	 * 
-	 * @param usData2 array to be leftshifted
-	 */
-	private void leftShiftArray(int[] usData2){
-		for(int i=1; i<usData2.length; i++){
-			usData2[i -1]= usData2[i];
-		}
-		usData2[usData2.length-1]=0;
-	}
 
 }
@@ -0,0 +1,164 @@
+import lejos.nxt.UltrasonicSensor;
+
+/**
+ * Background sampler of the ultrasonic sensor.
+ * 
+ * While active, this thread keeps the sensor in continuous mode and pushes a timestamped reading
+ * into a sample buffer every period. Consumers either read the newest reading without blocking
+ * or wait for the next one, instead of paying a ping and a fixed sleep for every reading.
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow.
+ * @version V1.1 Revision 2
+ *
+ */
+public class USSampler extends Thread {
+	
+	/** default sampling period, in ms. The sensor itself measures about every 30 ms in continuous mode. */
+	public static final int DEFAULT_PERIOD = 30;
+	
+	/** the ultrasonic sensor sampled by this thread */
+	private UltrasonicSensor us;
+	
+	/** sampling period, in ms */
+	private int period;
+	
+	/** buffer of the readings, with the time they were read */
+	private SampleBuffer samples = new SampleBuffer(32);
+	
+	/** true while the sensor should be sampled */
+	private boolean active;
+	
+	/**
+	 * default constructor. The sampler starts inactive.
+	 * @param us the ultrasonic sensor to sample.
+	 * @param period the sampling period, in ms.
+	 */
+	public USSampler(UltrasonicSensor us, int period) {
+		this.us = us;
+		this.period = period;
+		setDaemon(true);
+	}
+	
+	/**
+	 * secondary constructor that uses the default period.
+	 * @param us the ultrasonic sensor to sample.
+	 */
+	public USSampler(UltrasonicSensor us) {
+		this(us, DEFAULT_PERIOD);
+	}
+	
+	/**
+	 * run method required for thread. samples the sensor every period while active,
+	 * and waits without using the sensor otherwise.
+	 */
+	public void run() {
+		while (true) {
+			synchronized (this) {
+				if (!active) {
+					us.off();
+					while (!active) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					us.continuous();
+				}
+			}
+			
+			samples.push(us.getDistance(), SampleClock.now());
+			synchronized (this) {
+				notifyAll();
+			}
+			
+			try {
+				Thread.sleep(period);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * starts or stops sampling. The sensor is switched off while the sampler is inactive.
+	 * @param active true to sample the sensor.
+	 */
+	public synchronized void setActive(boolean active) {
+		this.active = active;
+		notifyAll();
+	}
+	
+	/**
+	 * @return the newest reading, without blocking.
+	 */
+	public int getLatest() {
+		return (int) samples.getLatest();
+	}
+	
+	/**
+	 * @return the time the newest reading was taken.
+	 */
+	public long getLatestTime() {
+		return samples.getLatestTime();
+	}
+	
+	/**
+	 * @return the number of readings taken so far.
+	 */
+	public int getCount() {
+		return samples.getCount();
+	}
+	
+	/**
+	 * accessor for the buffer of readings.
+	 * @return the sample buffer filled by this thread.
+	 */
+	public SampleBuffer getSamples() {
+		return samples;
+	}
+	
+	/**
+	 * waits until a reading newer than the given count is available.
+	 * @param seenCount the reading count the caller has already seen.
+	 * @param timeout longest time to wait, in ms.
+	 * @return true if a new reading is available, false if the timeout expired.
+	 */
+	public synchronized boolean awaitNext(int seenCount, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (samples.getCount() <= seenCount) {
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0)
+				return false;
+			try {
+				wait(left);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * waits until a reading taken after the given time is available.
+	 * @param time the time the reading must be newer than.
+	 * @param timeout longest time to wait, in ms.
+	 * @return true if such a reading is available, false if the timeout expired.
+	 */
+	public synchronized boolean awaitSampleAfter(long time, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (samples.getCount() == 0 || samples.getLatestTime() <= time) {
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0)
+				return false;
+			try {
+				wait(left);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Accuracy and speed comparison of FastTrig against Math. 
+ * 
+ * Used only for testing purposes, on a desktop JVM (not on the brick): reports the largest error
+ * of each table function over a dense sweep and the time taken by the table and by Math for the
+ * same calls, for a few table resolutions. Kept out of the brick sources: compile it with
+ * Code/src on the classpath.
+ * 
+ * @author Bobak Hamed-Baghi, Victor Repkow
+ * @version V1.1 Revision 2
+ *
+ */
+public class FastTrigBenchmark {
+	
+	/** number of calls timed for each function */
+	private static final int CALLS = 2000000;
+	
+	/** number of warm-up passes before timing, so the JIT has compiled both paths */
+	private static final int WARM_UP = 3;
+	
+	/** result accumulator, printed so the timed loops cannot be optimised away */
+	private static double sink;
+	
+	/**
+	 * Runs the benchmark. 
+	 * @param args unused.
+	 */
+	public static void main(String[] args) {
+		int [] resolutions = {1, 2, 4};
+		for (int r = 0; r < resolutions.length; r++) {
+			FastTrig.setResolution(resolutions[r]);
+			System.out.println("resolution " + resolutions[r] + " steps/degree");
+			System.out.println("  max sin error   " + maxSinError());
+			System.out.println("  max cos error   " + maxCosError());
+			System.out.println("  max atan2 error " + maxAtan2Error() + " deg");
+			
+			for (int i = 0; i < WARM_UP; i++) {
+				time(true);
+				time(false);
+			}
+			System.out.println("  table " + time(true) / 1000000 + " ms, Math " + time(false) / 1000000
+					+ " ms for " + CALLS + " sin+cos+atan2 calls");
+		}
+		System.out.println("(checksum " + sink + ")");
+	}
+	
+	/**
+	 * helper method that times CALLS sin, cos and atan2 calls.
+	 * @param table true to time the tables, false to time Math.
+	 * @return the elapsed time in ns.
+	 */
+	private static long time(boolean table) {
+		FastTrig.setEnabled(table);
+		double acc = 0.0;
+		long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++) {
+			double deg = i * 0.0137;
+			acc += FastTrig.sin(deg) + FastTrig.cos(deg) + FastTrig.atan2(deg - 50.0, 30.0);
+		}
+		long elapsed = System.nanoTime() - start;
+		sink += acc;
+		FastTrig.setEnabled(false);
+		return elapsed;
+	}
+	
+	/** @return the largest absolute sine error over [-720,720] degrees. */
+	private static double maxSinError() {
+		double max = 0.0;
+		for (double deg = -720.0; deg <= 720.0; deg += 0.001)
+			max = Math.max(max, Math.abs(FastTrig.tableSin(deg) - Math.sin(Math.toRadians(deg))));
+		return max;
+	}
+	
+	/** @return the largest absolute cosine error over [-720,720] degrees. */
+	private static double maxCosError() {
+		double max = 0.0;
+		for (double deg = -720.0; deg <= 720.0; deg += 0.001)
+			max = Math.max(max, Math.abs(FastTrig.tableSin(deg + 90.0) - Math.cos(Math.toRadians(deg))));
+		return max;
+	}
+	
+	/** @return the largest absolute atan2 error, in degrees, over directions all around the circle. */
+	private static double maxAtan2Error() {
+		double max = 0.0;
+		for (double a = -180.0; a < 180.0; a += 0.001) {
+			double y = Math.sin(Math.toRadians(a)) * 37.0, x = Math.cos(Math.toRadians(a)) * 37.0;
+			double err = Math.abs(FastTrig.tableAtan2(y, x) - Math.toDegrees(Math.atan2(y, x)));
+			max = Math.max(max, Math.min(err, 360.0 - err));
+		}
+		return max;
+	}
+}